@@ -1,6 +1,8 @@
+
+varying vec4 color;
+
 void main (void) {
     
-      gl_FragColor = gl_Color;
+      gl_FragColor = color;
    		
 }
-
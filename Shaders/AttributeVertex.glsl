@@ -1,9 +1,11 @@
 attribute vec4 vertexCol;
 attribute vec4 vertexPos;
 
-void main(void) {
-	gl_Position=gl_ModelViewProjectionMatrix*vertexPos;
-    gl_FrontColor = vertexCol;  
-}
+uniform mat4 viewProjection;
 
+varying vec4 color;
 
+void main(void) {
+	gl_Position=viewProjection*vertexPos;
+    color = vertexCol;  
+}
@@ -0,0 +1,13 @@
+uniform sampler2D impostorTexture;
+
+varying vec2 texCoord;
+varying vec4 color;
+
+void main (void) {
+
+      vec4 texel = texture2D(impostorTexture, texCoord);
+      if (texel.a < 0.5)
+            discard;
+      gl_FragColor = vec4(color.rgb * texel.rgb, 1.0);
+
+}
@@ -0,0 +1,26 @@
+#include "Lighting.glsl"
+
+// corner of the billboard, x from -0.5 to 0.5 and y from 0 to 1
+attribute vec2 vertexCorner;
+attribute vec3 instancePos;
+
+uniform mat4 viewProjection;
+// camera right vector, the billboard turns about the y axis to face it
+uniform vec3 cameraRight;
+// billboard width and height
+uniform vec2 size;
+
+varying vec2 texCoord;
+varying vec4 color;
+
+void main(void) {
+	vec3 right = normalize(vec3(cameraRight.x, 0.0, cameraRight.z));
+	vec3 pos = instancePos + right * vertexCorner.x * size.x
+			+ vec3(0.0, vertexCorner.y * size.y, 0.0);
+	// face the camera
+	vec3 normal = vec3(-right.z, 0.0, right.x);
+
+	color = lighting(pos, normal);
+	texCoord = vec2(vertexCorner.x + 0.5, vertexCorner.y);
+	gl_Position = viewProjection * vec4(pos, 1.0);
+}
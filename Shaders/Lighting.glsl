@@ -0,0 +1,55 @@
+// sun, moon and torch, replacing the fixed function light state
+uniform vec4 lightPosition[3];
+uniform vec4 lightAmbient[3];
+uniform vec4 lightDiffuse[3];
+uniform vec4 lightSpecular[3];
+uniform vec3 spotDirection[3];
+// cosine of the spot cutoff, -1 for lights that are not spots
+uniform float spotCosCutoff[3];
+uniform float spotExponent[3];
+// 1 for each light that is switched on
+uniform vec3 lightEnabled;
+uniform vec4 sceneAmbient;
+
+uniform vec4 materialAmbient;
+uniform vec4 materialDiffuse;
+uniform vec4 materialSpecular;
+uniform float materialShininess;
+
+// same terms the fixed function pipeline uses for one light
+vec4 shade(int i, vec3 pos, vec3 normal) {
+	vec3 toLight;
+	float attenuation = 1.0;
+	if (lightPosition[i].w == 0.0) {
+		toLight = normalize(lightPosition[i].xyz);
+	} else {
+		toLight = normalize(lightPosition[i].xyz - pos);
+		if (spotCosCutoff[i] > -1.0) {
+			float spot = dot(-toLight, normalize(spotDirection[i]));
+			attenuation = spot < spotCosCutoff[i] ? 0.0
+					: pow(spot, spotExponent[i]);
+		}
+	}
+
+	float diffuse = max(dot(normal, toLight), 0.0);
+	float specular = 0.0;
+	if (diffuse > 0.0) {
+		vec3 halfVector = normalize(toLight + vec3(0.0, 0.0, 1.0));
+		specular = pow(max(dot(normal, halfVector), 0.0), materialShininess);
+	}
+
+	return attenuation * (lightAmbient[i] * materialAmbient
+			+ diffuse * lightDiffuse[i] * materialDiffuse
+			+ specular * lightSpecular[i] * materialSpecular);
+}
+
+// the lit colour of a point, positions and normals in world space
+vec4 lighting(vec3 pos, vec3 normal) {
+	vec4 color = sceneAmbient * materialAmbient;
+	color += lightEnabled.x * shade(0, pos, normal);
+	color += lightEnabled.y * shade(1, pos, normal);
+	color += lightEnabled.z * shade(2, pos, normal);
+	color = clamp(color, 0.0, 1.0);
+	color.a = materialDiffuse.a;
+	return color;
+}
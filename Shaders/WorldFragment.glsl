@@ -0,0 +1,18 @@
+#extension GL_EXT_texture_array : enable
+
+uniform sampler2DArray worldTextures;
+// which image in the array to draw with
+uniform float layer;
+
+varying vec2 texCoord;
+varying vec4 color;
+
+void main (void) {
+
+#ifdef UNTEXTURED
+      gl_FragColor = color;
+#else
+      gl_FragColor = color * texture2DArray(worldTextures, vec3(texCoord, layer));
+#endif
+
+}
@@ -0,0 +1,33 @@
+#include "Lighting.glsl"
+
+attribute vec3 vertexPos;
+attribute vec3 vertexNormal;
+#ifndef UNTEXTURED
+attribute vec2 vertexTexCoord;
+#endif
+#ifdef INSTANCED
+attribute vec3 instancePos;
+#endif
+
+uniform mat4 viewProjection;
+// rotation and translation only, so it also transforms normals
+uniform mat4 model;
+// 1 to skip lighting, when baking the impostor texture
+uniform float unlit;
+
+varying vec2 texCoord;
+varying vec4 color;
+
+void main(void) {
+	vec4 pos = model * vec4(vertexPos, 1.0);
+#ifdef INSTANCED
+	pos.xyz += instancePos;
+#endif
+	vec3 normal = normalize((model * vec4(vertexNormal, 0.0)).xyz);
+
+	color = mix(lighting(pos.xyz, normal), vec4(1.0), unlit);
+#ifndef UNTEXTURED
+	texCoord = vertexTexCoord;
+#endif
+	gl_Position = viewProjection * pos;
+}
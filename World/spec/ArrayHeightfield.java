@@ -0,0 +1,67 @@
+package World.spec;
+
+/**
+ * ArrayHeightfield class, keeps the altitudes in one float array on the heap
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class ArrayHeightfield implements Heightfield {
+
+	private int myWidth;
+	private int myDepth;
+	private float[] myHeights;
+
+	public ArrayHeightfield(int width, int depth) {
+		myWidth = width;
+		myDepth = depth;
+		myHeights = new float[width * depth];
+	}
+
+	/**
+	 * Wrap existing altitudes without copying them
+	 * 
+	 * @param width
+	 * @param depth
+	 * @param heights
+	 *            width * depth altitudes, row by row
+	 */
+	public ArrayHeightfield(int width, int depth, float[] heights) {
+		myWidth = width;
+		myDepth = depth;
+		myHeights = heights;
+	}
+
+	@Override
+	public int getWidth() {
+		return myWidth;
+	}
+
+	@Override
+	public int getDepth() {
+		return myDepth;
+	}
+
+	@Override
+	public float get(int x, int z) {
+		return myHeights[z * myWidth + x];
+	}
+
+	@Override
+	public void set(int x, int z, float h) {
+		myHeights[z * myWidth + x] = h;
+	}
+
+	@Override
+	public Heightfield create(int width, int depth) {
+		return new ArrayHeightfield(width, depth);
+	}
+
+	/**
+	 * The altitudes themselves, row by row
+	 * 
+	 * @return
+	 */
+	public float[] getArray() {
+		return myHeights;
+	}
+}
@@ -1,8 +1,12 @@
 package World.spec;
 
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 
-import com.jogamp.opengl.util.gl2.GLUT;
+import com.jogamp.common.nio.Buffers;
 
 /**
  * Avatar class, holds info about the avatar, and draws itself
@@ -12,26 +16,111 @@ import com.jogamp.opengl.util.gl2.GLUT;
  */
 public class Avatar {
 
+	private static final double RADIUS = .25;
+	private static final int SLICES = 20;
+	private static final int STACKS = 20;
+
+	// floats per vertex: position (3), normal (3)
+	private static final int VERTEX_SIZE = 6;
+	private static final int STRIDE = VERTEX_SIZE * Float.BYTES;
+	private static final int NORMAL_OFFSET = 3 * Float.BYTES;
+
+	private static final Material MATERIAL = new Material(new float[] { 0.7f,
+			0.3f, 0.3f, 1.0f }, new float[] { 0.6f, 0.2f, 0.2f, 1.0f },
+			new float[] { 0.95f, 0.8f, 0.6f, 0.2f }, 100f);
+
 	private Terrain myTerrain;
 
 	private double myY;
 	private double dy = -.1;
 	private final double MAX_Y = 1.8;
 
+	private WorldShader shader = new WorldShader();
+	// vertices, indices
+	private int bufferIds[] = new int[2];
+	private int vertexArray[] = new int[1];
+	private int indexCount;
+	private double[] model = new double[16];
+	private float[] modelFloats = new float[16];
+	private RenderItem sphere = this::drawSphere;
+
 	public Avatar(Terrain terrain, double startingY) {
 		myTerrain = terrain;
 		myY = startingY;
 	}
 
 	/**
-	 * Draws itself as a bouncing ball
+	 * Build the sphere into a vertex array and load the shader
 	 * 
 	 * @param gl
+	 */
+	public void init(GL2 gl) {
+		FloatBuffer vertexData = Buffers.newDirectFloatBuffer((SLICES + 1)
+				* (STACKS + 1) * VERTEX_SIZE);
+		ShortBuffer indexData = Buffers.newDirectShortBuffer(SLICES * STACKS
+				* 6);
+		for (int stack = 0; stack <= STACKS; stack++) {
+			double polar = Math.PI * stack / STACKS;
+			double y = -Math.cos(polar);
+			double ring = Math.sin(polar);
+			for (int i = 0; i <= SLICES; i++) {
+				double a = 2 * Math.PI * i / SLICES;
+				double nx = ring * Math.sin(a);
+				double nz = ring * Math.cos(a);
+				vertexData.put((float) (RADIUS * nx));
+				vertexData.put((float) (RADIUS * y));
+				vertexData.put((float) (RADIUS * nz));
+				vertexData.put((float) nx);
+				vertexData.put((float) y);
+				vertexData.put((float) nz);
+			}
+		}
+		for (int stack = 0; stack < STACKS; stack++) {
+			for (int i = 0; i < SLICES; i++) {
+				int v = stack * (SLICES + 1) + i;
+				indexData.put((short) v);
+				indexData.put((short) (v + 1));
+				indexData.put((short) (v + SLICES + 1));
+				indexData.put((short) (v + 1));
+				indexData.put((short) (v + SLICES + 2));
+				indexData.put((short) (v + SLICES + 1));
+			}
+		}
+		vertexData.flip();
+		indexData.flip();
+		indexCount = indexData.limit();
+
+		gl.glGenVertexArrays(1, vertexArray, 0);
+		GLState.getInstance().bindVertexArray(gl, vertexArray[0]);
+		gl.glGenBuffers(2, bufferIds, 0);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, bufferIds[0]);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, vertexData.limit() * Float.BYTES,
+				vertexData, GL.GL_STATIC_DRAW);
+		gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_POS);
+		gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_NORMAL);
+		gl.glVertexAttribPointer(ShaderProgram.VERTEX_POS, 3, GL.GL_FLOAT,
+				false, STRIDE, 0);
+		gl.glVertexAttribPointer(ShaderProgram.VERTEX_NORMAL, 3, GL.GL_FLOAT,
+				false, STRIDE, NORMAL_OFFSET);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER,
+				bufferIds[1]);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, indexCount * Short.BYTES,
+				indexData, GL.GL_STATIC_DRAW);
+		GLState.getInstance().bindVertexArray(gl, 0);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, 0);
+
+		shader.init(gl, WorldShader.UNTEXTURED);
+	}
+
+	/**
+	 * Queues itself as a bouncing ball
+	 * 
+	 * @param queue
 	 * @param x
 	 * @param z
 	 * @param angle
 	 */
-	public void drawSelf(GL2 gl, double x, double z, double angle) {
+	public void submit(RenderQueue queue, double x, double z, double angle) {
 		double altitude;
 		try {
 			altitude = myTerrain.altitude(x, z);
@@ -54,27 +143,30 @@ public class Avatar {
 		else
 			myY += dy / (myY);
 
-		// Material properties
-		float[] diffuseCoeff = { 0.6f, 0.2f, 0.2f, 1.0f };
-		float[] specCoeff = { 0.95f, 0.8f, 0.6f, 0.2f };
-		float[] ambientCoeff = { 0.7f, 0.3f, 0.3f, 1.0f };
-		float phong = 100f;
-
-		gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_DIFFUSE, diffuseCoeff, 0);
-		gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_SPECULAR, specCoeff, 0);
-		gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_AMBIENT, ambientCoeff, 0);
-		gl.glMaterialf(GL2.GL_FRONT, GL2.GL_SHININESS, phong);
-
-		// draw sphere
-		gl.glMatrixMode(GL2.GL_MODELVIEW);
-		gl.glLoadIdentity();
-		gl.glPushMatrix();
-		gl.glColor3f(1, 1, 1);
-		gl.glTranslated(x, myY, z);
-		gl.glRotated(angle, 0, 1, 0);
-		GLUT glut = new GLUT();
-		glut.glutSolidSphere(.25, 20, 20);
-		gl.glPopMatrix();
+		MathUtil.translateRotateY(x, myY, z, angle, model);
+		MathUtil.toFloats(model, modelFloats);
+		queue.submit(shader, null, RenderQueue.NO_LAYER, MATERIAL,
+				vertexArray[0], 0, sphere);
+	}
+
+	private void drawSphere(GL2 gl) {
+		shader.setModel(gl, modelFloats);
+		gl.glDrawElements(GL.GL_TRIANGLES, indexCount, GL.GL_UNSIGNED_SHORT, 0);
+	}
+
+	/**
+	 * Delete the sphere and let go of the shader
+	 * 
+	 * @param gl
+	 */
+	public void release(GL2 gl) {
+		if (bufferIds[0] > 0) {
+			GLState.getInstance().deleteBuffers(gl, 2, bufferIds);
+			GLState.getInstance().deleteVertexArrays(gl, 1, vertexArray);
+			bufferIds[0] = 0;
+			vertexArray[0] = 0;
+		}
+		shader.release(gl);
 	}
 
 }
@@ -4,11 +4,11 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 
 import javax.media.opengl.GL2;
-import javax.media.opengl.glu.GLU;
 
 /**
  * Camera Class, controls the camera position and movement, and holds the Avatar
- * class. Also controls the torch
+ * class. Also controls the torch. The view and projection are handed to the
+ * shaders as one matrix rather than loaded into GL.
  * 
  * @author Fufu Hu
  *
@@ -27,6 +27,11 @@ public class Camera implements KeyListener {
 	private boolean showAvatar = true;
 	private boolean torch = false;
 	private Avatar myAvatar;
+	private double[] myProjection = new double[16];
+	private double[] myView = new double[16];
+	private double[] myViewProjection = new double[16];
+	private float[] myViewProjectionFloats = new float[16];
+	private Frustum myFrustum = new Frustum();
 
 	public Camera(Terrain terrain) {
 		myTerrain = terrain;
@@ -53,44 +58,100 @@ public class Camera implements KeyListener {
 	}
 
 	/**
-	 * Set the camera view
+	 * The horizontal unit vector pointing to the right of the view
+	 * 
+	 * @return
+	 */
+	public double[] getRight() {
+		return new double[] { -lz, 0, lx };
+	}
+
+	/**
+	 * The view frustum as of the last call to setView
+	 * 
+	 * @return
+	 */
+	public Frustum getFrustum() {
+		return myFrustum;
+	}
+
+	/**
+	 * The projection times the view as of the last call to setView, column
+	 * major, for the shaders
+	 * 
+	 * @return
+	 */
+	public float[] getViewProjection() {
+		return myViewProjectionFloats;
+	}
+
+	/**
+	 * Create the avatar's mesh and shader
 	 * 
 	 * @param gl
 	 */
-	public void setView(GL2 gl) {
-		gl.glMatrixMode(GL2.GL_PROJECTION);
-		gl.glLoadIdentity();
-		GLU glu = new GLU();
-		glu.gluPerspective(fieldOfView, aspectRatio, near, far);
-		glu.gluLookAt(myPosition[0], myPosition[1], myPosition[2],
-				myPosition[0] + lx, myPosition[1] * .9, myPosition[2] + lz, 0,
-				1, 0);
+	public void init(GL2 gl) {
+		myAvatar.init(gl);
+	}
 
+	/**
+	 * Let go of the avatar's GL resources
+	 * 
+	 * @param gl
+	 */
+	public void release(GL2 gl) {
+		myAvatar.release(gl);
+	}
+
+	/**
+	 * Set the camera view, and move the torch with it
+	 * 
+	 * @param lights
+	 */
+	public void setView(Lights lights) {
+		updateMatrices();
+		updateTorch(lights);
+	}
+
+	/**
+	 * Queues the avatar in front of the camera, if it is shown
+	 * 
+	 * @param queue
+	 */
+	public void submitAvatar(RenderQueue queue) {
 		if (showAvatar)
-			myAvatar.drawSelf(gl, myPosition[0] + (2 * lx), myPosition[2]
+			myAvatar.submit(queue, myPosition[0] + (2 * lx), myPosition[2]
 					+ (2 * lz), teapotAngle);
+	}
 
-		updateTorch(gl);
+	/**
+	 * Recalculates the projection and look-at matrices, and the view frustum
+	 * culling is done against
+	 */
+	private void updateMatrices() {
+		MathUtil.perspective(fieldOfView, aspectRatio, near, far, myProjection);
+		MathUtil.lookAt(myPosition, new double[] { myPosition[0] + lx,
+				myPosition[1] * .9, myPosition[2] + lz }, new double[] { 0, 1,
+				0 }, myView);
+		MathUtil.multiplyMatrix(myProjection, myView, myViewProjection);
+		MathUtil.toFloats(myViewProjection, myViewProjectionFloats);
+		myFrustum.update(myViewProjection);
 	}
 
 	/**
 	 * Updates the torches position and on/off
 	 * 
-	 * @param gl
+	 * @param lights
 	 */
-	private void updateTorch(GL2 gl) {
+	private void updateTorch(Lights lights) {
 		float[] position = { (float) myPosition[0], (float) myPosition[1] + 2,
 				(float) myPosition[2], 1 };
-		gl.glLightfv(GL2.GL_LIGHT3, GL2.GL_POSITION, position, 0);
+		lights.setPosition(Lights.TORCH, position);
 
 		float[] dir = { (float) lx, -0.6f, (float) lz };
-		gl.glLightfv(GL2.GL_LIGHT3, GL2.GL_SPOT_DIRECTION, dir, 0);
+		lights.setSpotDirection(Lights.TORCH, dir);
 
-		if (torch && !gl.glIsEnabled(GL2.GL_LIGHT3)) { // Turn on torch
-			gl.glEnable(GL2.GL_LIGHT3);
-		} else if (!torch && gl.glIsEnabled(GL2.GL_LIGHT3)) { // Turn off torch
-			gl.glDisable(GL2.GL_LIGHT3);
-		}
+		lights.setEnabled(Lights.TORCH, torch);
 	}
 
 	@Override
@@ -0,0 +1,58 @@
+package World.spec;
+
+/**
+ * Frustum class, holds the six clipping planes of a view frustum and tests
+ * bounding boxes against them
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class Frustum {
+
+	// left, right, bottom, top, near, far; each plane is (a, b, c, d) with
+	// the normal pointing into the frustum
+	private double[][] myPlanes = new double[6][4];
+
+	/**
+	 * Extract the planes from a column-major projection * view matrix
+	 *
+	 * @param m
+	 */
+	public void update(double[] m) {
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 4; j++) {
+				double w = m[j * 4 + 3];
+				double v = m[j * 4 + i];
+				myPlanes[i * 2][j] = w + v;
+				myPlanes[i * 2 + 1][j] = w - v;
+			}
+		}
+
+		for (double[] plane : myPlanes) {
+			double length = Math.sqrt(plane[0] * plane[0] + plane[1]
+					* plane[1] + plane[2] * plane[2]);
+			for (int j = 0; j < 4; j++) {
+				plane[j] /= length;
+			}
+		}
+	}
+
+	/**
+	 * Test whether an axis aligned box is at least partly inside the frustum.
+	 * May return true for some boxes just outside a corner of the frustum.
+	 *
+	 * @return false if the box is certainly not visible
+	 */
+	public boolean intersectsBox(double minX, double minY, double minZ,
+			double maxX, double maxY, double maxZ) {
+		for (double[] plane : myPlanes) {
+			// the corner of the box furthest along the plane normal
+			double x = plane[0] > 0 ? maxX : minX;
+			double y = plane[1] > 0 ? maxY : minY;
+			double z = plane[2] > 0 ? maxZ : minZ;
+			if (plane[0] * x + plane[1] * y + plane[2] * z + plane[3] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,309 @@
+package World.spec;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+/**
+ * GLState class, keeps a copy of the GL state the world changes most, so a
+ * call that would set something to the value it already has is skipped, and
+ * state can be read back without asking the driver. Enable flags, the
+ * program, vertex array, array and element buffers, the texture bound to
+ * each unit, the viewport and each program's material are shadowed.
+ *
+ * Everything that changes one of these must go through the tracker,
+ * including deleting the objects, or the copy goes stale. State nobody has
+ * set through it yet is unknown, so the first call always reaches GL. There
+ * is one GL context and it is only used on the GL thread, so the tracker is
+ * a singleton and not thread safe.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class GLState {
+
+	private static final GLState INSTANCE = new GLState();
+
+	private static final int UNKNOWN = -1;
+	// texture units tracked, calls for later units always reach GL
+	private static final int TEXTURE_UNITS = 8;
+	// the texture targets tracked on each unit
+	private static final int TEXTURE_2D = 0;
+	private static final int TEXTURE_2D_ARRAY = 1;
+
+	private Map<Integer, Boolean> enabled = new HashMap<Integer, Boolean>();
+	private int program;
+	private int vertexArray;
+	private int arrayBuffer;
+	// part of the vertex array's state, so unknown after binding another
+	private int elementBuffer;
+	private int activeTexture;
+	private int[][] textures = new int[TEXTURE_UNITS][2];
+	private int[] viewport = new int[4];
+	private boolean viewportKnown;
+	private Map<ShaderProgram, Material> materials =
+			new IdentityHashMap<ShaderProgram, Material>();
+
+	private GLState() {
+		reset();
+	}
+
+	public static GLState getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Forget everything, for a new context or after code that changed the
+	 * state behind the tracker's back
+	 */
+	public void reset() {
+		forgetBindings();
+		enabled.clear();
+		viewportKnown = false;
+		materials.clear();
+	}
+
+	/**
+	 * Forget which objects are bound, keeping enable flags, the viewport and
+	 * materials. Called at the start of each frame, since the GLJPanel draws
+	 * the finished frame with its own program, texture and buffers.
+	 * Materials are uniforms of our own programs, so nothing else can
+	 * change them.
+	 */
+	public void forgetBindings() {
+		program = UNKNOWN;
+		vertexArray = UNKNOWN;
+		arrayBuffer = UNKNOWN;
+		elementBuffer = UNKNOWN;
+		activeTexture = UNKNOWN;
+		for (int[] unit : textures) {
+			unit[TEXTURE_2D] = UNKNOWN;
+			unit[TEXTURE_2D_ARRAY] = UNKNOWN;
+		}
+	}
+
+	public void enable(GL2 gl, int capability) {
+		if (enabled.get(capability) != Boolean.TRUE) {
+			gl.glEnable(capability);
+			enabled.put(capability, Boolean.TRUE);
+		}
+	}
+
+	public void disable(GL2 gl, int capability) {
+		if (enabled.get(capability) != Boolean.FALSE) {
+			gl.glDisable(capability);
+			enabled.put(capability, Boolean.FALSE);
+		}
+	}
+
+	/**
+	 * Whether a capability was enabled through the tracker. Capabilities it
+	 * has not seen count as disabled, which is GL's default for all but
+	 * dithering and multisampling.
+	 *
+	 * @param capability
+	 * @return
+	 */
+	public boolean isEnabled(int capability) {
+		return enabled.get(capability) == Boolean.TRUE;
+	}
+
+	public void useProgram(GL2 gl, int id) {
+		if (program != id) {
+			gl.glUseProgram(id);
+			program = id;
+		}
+	}
+
+	public void bindVertexArray(GL2 gl, int id) {
+		if (vertexArray != id) {
+			gl.glBindVertexArray(id);
+			vertexArray = id;
+			elementBuffer = UNKNOWN;
+		}
+	}
+
+	/**
+	 * Bind a buffer. Only the array and element array targets are shadowed.
+	 *
+	 * @param gl
+	 * @param target
+	 * @param id
+	 */
+	public void bindBuffer(GL2 gl, int target, int id) {
+		if (target == GL.GL_ARRAY_BUFFER) {
+			if (arrayBuffer == id)
+				return;
+			arrayBuffer = id;
+		} else if (target == GL.GL_ELEMENT_ARRAY_BUFFER) {
+			if (elementBuffer == id)
+				return;
+			elementBuffer = id;
+		}
+		gl.glBindBuffer(target, id);
+	}
+
+	/**
+	 * Pick the texture unit later binds apply to
+	 *
+	 * @param gl
+	 * @param unit
+	 *            GL_TEXTURE0 and up
+	 */
+	public void activeTexture(GL2 gl, int unit) {
+		if (activeTexture != unit) {
+			gl.glActiveTexture(unit);
+			activeTexture = unit;
+		}
+	}
+
+	/**
+	 * Bind a texture to the active unit. 2D textures and 2D texture arrays
+	 * are shadowed on each unit.
+	 *
+	 * @param gl
+	 * @param target
+	 * @param id
+	 */
+	public void bindTexture(GL2 gl, int target, int id) {
+		int[] unit = activeUnit();
+		int slot = textureSlot(target);
+		if (unit != null && slot != UNKNOWN) {
+			if (unit[slot] == id)
+				return;
+			unit[slot] = id;
+		}
+		gl.glBindTexture(target, id);
+	}
+
+	/**
+	 * The bindings of the active unit, or null if it is not tracked. A unit
+	 * nobody has picked is GL_TEXTURE0 unless someone went behind the
+	 * tracker's back.
+	 */
+	private int[] activeUnit() {
+		int unit = (activeTexture == UNKNOWN ? GL.GL_TEXTURE0 : activeTexture)
+				- GL.GL_TEXTURE0;
+		return unit >= 0 && unit < TEXTURE_UNITS ? textures[unit] : null;
+	}
+
+	private static int textureSlot(int target) {
+		if (target == GL.GL_TEXTURE_2D)
+			return TEXTURE_2D;
+		if (target == GL2.GL_TEXTURE_2D_ARRAY)
+			return TEXTURE_2D_ARRAY;
+		return UNKNOWN;
+	}
+
+	public void viewport(GL2 gl, int x, int y, int width, int height) {
+		if (viewportKnown && viewport[0] == x && viewport[1] == y
+				&& viewport[2] == width && viewport[3] == height)
+			return;
+		gl.glViewport(x, y, width, height);
+		viewport[0] = x;
+		viewport[1] = y;
+		viewport[2] = width;
+		viewport[3] = height;
+		viewportKnown = true;
+	}
+
+	/**
+	 * The current viewport. GL is only asked if nothing has set the viewport
+	 * through the tracker yet, which does not happen once the window has
+	 * been sized.
+	 *
+	 * @param gl
+	 * @param out
+	 *            receives x, y, width and height
+	 * @return out
+	 */
+	public int[] getViewport(GL2 gl, int[] out) {
+		if (!viewportKnown) {
+			gl.glGetIntegerv(GL.GL_VIEWPORT, viewport, 0);
+			viewportKnown = true;
+		}
+		System.arraycopy(viewport, 0, out, 0, 4);
+		return out;
+	}
+
+	/**
+	 * Set a program's material uniforms, unless it already has that
+	 * material. The program must be in use.
+	 *
+	 * @param gl
+	 * @param shader
+	 * @param material
+	 * @param locations
+	 *            from Material.locate
+	 */
+	public void setMaterial(GL2 gl, ShaderProgram shader, Material material,
+			int[] locations) {
+		if (materials.get(shader) != material) {
+			material.apply(gl, locations);
+			materials.put(shader, material);
+		}
+	}
+
+	public void deleteProgram(GL2 gl, ShaderProgram shader) {
+		if (program == shader.getId())
+			useProgram(gl, 0);
+		gl.glDeleteProgram(shader.getId());
+		materials.remove(shader);
+	}
+
+	/**
+	 * Delete vertex arrays, forgetting any that were bound, since GL
+	 * unbinds them and their ids may come back
+	 *
+	 * @param gl
+	 * @param n
+	 * @param ids
+	 */
+	public void deleteVertexArrays(GL2 gl, int n, int[] ids) {
+		for (int i = 0; i < n; i++) {
+			if (vertexArray == ids[i]) {
+				vertexArray = 0;
+				elementBuffer = UNKNOWN;
+			}
+		}
+		gl.glDeleteVertexArrays(n, ids, 0);
+	}
+
+	/**
+	 * Delete buffers, forgetting any that were bound
+	 *
+	 * @param gl
+	 * @param n
+	 * @param ids
+	 */
+	public void deleteBuffers(GL2 gl, int n, int[] ids) {
+		for (int i = 0; i < n; i++) {
+			if (arrayBuffer == ids[i])
+				arrayBuffer = 0;
+			if (elementBuffer == ids[i])
+				elementBuffer = 0;
+		}
+		gl.glDeleteBuffers(n, ids, 0);
+	}
+
+	/**
+	 * Delete textures, forgetting any that were bound
+	 *
+	 * @param gl
+	 * @param n
+	 * @param ids
+	 */
+	public void deleteTextures(GL2 gl, int n, int[] ids) {
+		for (int i = 0; i < n; i++) {
+			for (int[] unit : textures) {
+				for (int slot = 0; slot < unit.length; slot++) {
+					if (unit[slot] == ids[i])
+						unit[slot] = 0;
+				}
+			}
+		}
+		gl.glDeleteTextures(n, ids, 0);
+	}
+}
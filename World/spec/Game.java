@@ -1,7 +1,7 @@
 package World.spec;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
@@ -57,92 +57,102 @@ public class Game extends JFrame implements GLEventListener {
 	 * Load a level file and display it.
 	 * 
 	 * @param args
-	 *            - The first argument is a level file in JSON format
-	 * @throws FileNotFoundException
+	 *            - The first argument is a level file in JSON format, or in
+	 *            binary format if it ends in .lvl
+	 * @throws IOException
 	 */
-	public static void main(String[] args) throws FileNotFoundException {
-		Terrain terrain = LevelIO.load(new File(args[0]));
+	public static void main(String[] args) throws IOException {
+		File level = new File(args[0]);
+		// decode the textures while the level is read
+		Terrain.preloadTextures();
+		Terrain terrain;
+		if (level.getName().endsWith(LevelIO.BINARY_EXTENSION)) {
+			terrain = LevelIO.loadBinary(level);
+		} else {
+			terrain = LevelIO.load(level);
+		}
 		Game game = new Game(terrain);
 		game.run();
 	}
 
 	@Override
 	public void dispose(GLAutoDrawable drawable) {
+		myTerrain.release(drawable.getGL().getGL2());
 	}
 
 	@Override
 	public void init(GLAutoDrawable drawable) {
 		GL2 gl = drawable.getGL().getGL2();
+		// a new context starts with GL's defaults, whatever was set before
+		GLState.getInstance().reset();
+		// textures loaded before now are drawn grey until their images arrive
+		TextureManager.getInstance().init(gl);
 
 		mySun = new Sun(myTerrain.getSunlight()); // create sun object
 
-		// enable lighting
-		initLighting(gl);
-		gl.glEnable(GL2.GL_LIGHT1); // start in day time, with the torch off
-		gl.glEnable(GL2.GL_LIGHTING);
-		gl.glEnable(GL2.GL_DEPTH_TEST);
-
-		gl.glEnable(GL2.GL_NORMALIZE);
+		// set up the lights the shaders use
+		initLighting(myTerrain.getLights());
+		GLState.getInstance().enable(gl, GL2.GL_DEPTH_TEST);
 
 		myTerrain.init(gl); // initializes the terrain textures
 	}
 
-	private void initLighting(GL2 gl) {
-		// Uncomment for ambient lighting
-		// float[] amb = { 0.1f, 0.2f, 0.3f, 1.0f };
-		// gl.glLightModelfv(GL2.GL_LIGHT_MODEL_AMBIENT, amb, 0);
+	private void initLighting(Lights lights) {
+		// start in day time, with the torch off
+		lights.setEnabled(Lights.SUN, true);
 
 		// Sun
 		float[] amb1 = { 0.0f, 0.0f, 0.0f, 1.0f };
-		gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_AMBIENT, amb1, 0);
+		lights.setAmbient(Lights.SUN, amb1);
 
 		float[] dif1 = { 1.0f, 1.0f, 0.0f, 1.0f };
-		gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_DIFFUSE, dif1, 0);
-		gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_SPECULAR, dif1, 0);
+		lights.setDiffuse(Lights.SUN, dif1);
+		lights.setSpecular(Lights.SUN, dif1);
 
 		// Moon
 		float[] amb2 = { 0.0f, 0.0f, 0.0f, 1.0f };
-		gl.glLightfv(GL2.GL_LIGHT2, GL2.GL_AMBIENT, amb2, 0);
+		lights.setAmbient(Lights.MOON, amb2);
 
 		float[] dif2 = { 0.0f, 0.0f, 1.0f, 1.0f };
-		gl.glLightfv(GL2.GL_LIGHT2, GL2.GL_DIFFUSE, dif2, 0);
-		gl.glLightfv(GL2.GL_LIGHT2, GL2.GL_SPECULAR, dif2, 0);
+		lights.setDiffuse(Lights.MOON, dif2);
+		lights.setSpecular(Lights.MOON, dif2);
 
 		// Torch
 		float[] amb3 = { 0.6f, 0.6f, 0.6f, 1.0f };
-		gl.glLightfv(GL2.GL_LIGHT3, GL2.GL_AMBIENT, amb3, 1);
+		lights.setAmbient(Lights.TORCH, amb3);
 
 		float[] dif3 = { 0.6f, 0.6f, 0.6f, 1.0f };
-		gl.glLightfv(GL2.GL_LIGHT3, GL2.GL_DIFFUSE, dif3, 1);
-		gl.glLightfv(GL2.GL_LIGHT3, GL2.GL_SPECULAR, dif3, 1);
+		lights.setDiffuse(Lights.TORCH, dif3);
+		lights.setSpecular(Lights.TORCH, dif3);
 
-		gl.glLightf(GL2.GL_LIGHT3, GL2.GL_SPOT_CUTOFF, 10);
-		gl.glLightf(GL2.GL_LIGHT3, GL2.GL_SPOT_EXPONENT, 4);
+		float[] dir3 = { 0, 0, -1 };
+		lights.setSpot(Lights.TORCH, dir3, 10, 4);
 
 		// move the sun to a starting position
-		day = mySun.update(gl, day);
+		day = mySun.update(lights, day);
 	}
 
 	@Override
 	public void display(GLAutoDrawable drawable) {
 		GL2 gl = drawable.getGL().getGL2();
+		GLState.getInstance().forgetBindings();
 
-		gl.glMatrixMode(GL2.GL_MODELVIEW);
-		gl.glLoadIdentity();
+		// upload any textures that have finished decoding
+		TextureManager.getInstance().processUploads(gl);
 
 		gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
 
 		myTerrain.drawWorld(gl); // draws the terrain, trees, road, and others
-		day = mySun.update(gl, day); // update the sun's position
+		day = mySun.update(myTerrain.getLights(), day); // update the sun's
+														// position
 	}
 
 	@Override
 	public void reshape(GLAutoDrawable drawable, int x, int y, int width,
 			int height) {
-		GL2 gl = drawable.getGL().getGL2();
-		gl.glMatrixMode(GL2.GL_PROJECTION);
-		gl.glLoadIdentity();
-
-		gl.glOrtho(-2, 2, -2, 2, 1, 20);
+		// JOGL has already set the viewport, this only lets the state
+		// tracker know. The camera builds its own projection every frame.
+		GLState.getInstance().viewport(drawable.getGL().getGL2(), x, y,
+				width, height);
 	}
 }
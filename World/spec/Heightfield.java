@@ -0,0 +1,52 @@
+package World.spec;
+
+/**
+ * Heightfield interface, a store for the altitude of every terrain grid
+ * point. Altitudes are kept as floats in row-major order, so the point (x, z)
+ * is at index z * width + x, the same order as the level files.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public interface Heightfield {
+
+	/**
+	 * The number of grid points in the x-direction
+	 * 
+	 * @return
+	 */
+	public int getWidth();
+
+	/**
+	 * The number of grid points in the z-direction
+	 * 
+	 * @return
+	 */
+	public int getDepth();
+
+	/**
+	 * Get the altitude at a grid point
+	 * 
+	 * @param x
+	 * @param z
+	 * @return
+	 */
+	public float get(int x, int z);
+
+	/**
+	 * Set the altitude at a grid point
+	 * 
+	 * @param x
+	 * @param z
+	 * @param h
+	 */
+	public void set(int x, int z, float h);
+
+	/**
+	 * Create a flat heightfield of the same kind with a different size
+	 * 
+	 * @param width
+	 * @param depth
+	 * @return
+	 */
+	public Heightfield create(int width, int depth);
+}
@@ -1,16 +1,33 @@
 package World.spec;
 
 import java.awt.Dimension;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
+import org.json.JSONWriter;
 
 /**
  * LevelIO class, turns the given file into a terrain object, and vice versa
@@ -19,157 +36,682 @@ import org.json.JSONTokener;
  */
 public class LevelIO {
 
+	// binary levels start with "LEVL" and a version number
+	public static final String BINARY_EXTENSION = ".lvl";
+	private static final int MAGIC = 0x4C56454C;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 28;
+
 	/**
-	 * Load a terrain object from a JSON file
+	 * Load a terrain object from a JSON file. The altitudes are either listed
+	 * in the file, or kept in a separate file of raw little-endian floats
+	 * named by "altitudeFile", which is memory-mapped read-only rather than
+	 * read. A level may not have both.
+	 * 
+	 * The file is read as a stream: altitudes are parsed straight into a
+	 * float array and trees, roads and others are read one at a time, so no
+	 * JSONArray of the whole level is ever built. The keys may come in any
+	 * order; altitudes that come before the width and depth wait in a
+	 * temporary file until the array can be sized, so only one copy of them
+	 * is ever in memory.
 	 * 
 	 * @param mapFile
 	 * @return
-	 * @throws FileNotFoundException
+	 * @throws IOException
 	 */
-	public static Terrain load(File mapFile) throws FileNotFoundException {
-
-		Reader in = new FileReader(mapFile);
-		JSONTokener jtk = new JSONTokener(in);
-		JSONObject jsonTerrain = new JSONObject(jtk);
-
-		int width = jsonTerrain.getInt("width");
-		int depth = jsonTerrain.getInt("depth");
-		Terrain terrain = new Terrain(width, depth);
-
-		JSONArray jsonSun = jsonTerrain.getJSONArray("sunlight");
-		float dx = (float) jsonSun.getDouble(0);
-		float dy = (float) jsonSun.getDouble(1);
-		float dz = (float) jsonSun.getDouble(2);
-		terrain.setSunlightDir(dx, dy, dz);
-
-		JSONArray jsonAltitude = jsonTerrain.getJSONArray("altitude");
-		for (int i = 0; i < jsonAltitude.length(); i++) {
-			int x = i % width;
-			int z = i / width;
-
-			double h = jsonAltitude.getDouble(i);
-			terrain.setGridAltitude(x, z, h);
-		}
-
-		if (jsonTerrain.has("trees")) {
-			JSONArray jsonTrees = jsonTerrain.getJSONArray("trees");
-			for (int i = 0; i < jsonTrees.length(); i++) {
-				JSONObject jsonTree = jsonTrees.getJSONObject(i);
-				double x = jsonTree.getDouble("x");
-				double z = jsonTree.getDouble("z");
-				terrain.addTree(x, z);
+	public static Terrain load(File mapFile) throws IOException {
+		int width = -1;
+		int depth = -1;
+		float[] sunlight = new float[3];
+		String altitudeFile = null;
+		float[] altitude = null;
+		int altitudeCount = 0;
+		// altitudes read before the size is known
+		File spill = null;
+		// x and z of each tree and other, added once the terrain exists
+		double[] treeXs = new double[64];
+		double[] treeZs = new double[64];
+		int treeCount = 0;
+		double[] others = new double[64];
+		int otherCount = 0;
+		List<JSONObject> roads = new ArrayList<JSONObject>();
+
+		try (Reader in = new BufferedReader(new FileReader(mapFile))) {
+			JSONTokener jtk = new JSONTokener(in);
+			if (jtk.nextClean() != '{')
+				throw jtk.syntaxError("A level must be a JSON object");
+
+			boolean more = jtk.nextClean() != '}';
+			if (more)
+				jtk.back();
+			while (more) {
+				String key = jtk.nextValue().toString();
+				if (jtk.nextClean() != ':')
+					throw jtk.syntaxError("Expected a ':' after a key");
+
+				boolean element;
+				switch (key) {
+				case "width":
+					width = toInt(jtk, jtk.nextValue());
+					break;
+				case "depth":
+					depth = toInt(jtk, jtk.nextValue());
+					break;
+				case "sunlight":
+					JSONArray jsonSun = (JSONArray) jtk.nextValue();
+					sunlight[0] = (float) jsonSun.getDouble(0);
+					sunlight[1] = (float) jsonSun.getDouble(1);
+					sunlight[2] = (float) jsonSun.getDouble(2);
+					break;
+				case "altitudeFile":
+					altitudeFile = jtk.nextValue().toString();
+					break;
+				case "altitude":
+					if (width >= 0 && depth >= 0) {
+						altitude = new float[width * depth];
+						altitudeCount = readAltitudes(jtk, altitude, null,
+								mapFile);
+						break;
+					}
+					altitude = null;
+					if (spill == null) {
+						spill = File.createTempFile("altitude", null);
+						spill.deleteOnExit();
+					}
+					try (DataOutputStream out = new DataOutputStream(
+							new BufferedOutputStream(new FileOutputStream(
+									spill)))) {
+						altitudeCount = readAltitudes(jtk, null, out,
+								mapFile);
+					}
+					break;
+				case "trees":
+					element = startArray(jtk);
+					while (element) {
+						JSONObject jsonTree = (JSONObject) jtk.nextValue();
+						if (treeCount == treeXs.length) {
+							treeXs = Arrays.copyOf(treeXs, treeCount * 2);
+							treeZs = Arrays.copyOf(treeZs, treeCount * 2);
+						}
+						treeXs[treeCount] = jsonTree.getDouble("x");
+						treeZs[treeCount] = jsonTree.getDouble("z");
+						treeCount++;
+						element = nextElement(jtk);
+					}
+					break;
+				case "roads":
+					element = startArray(jtk);
+					while (element) {
+						roads.add((JSONObject) jtk.nextValue());
+						element = nextElement(jtk);
+					}
+					break;
+				case "others":
+					element = startArray(jtk);
+					while (element) {
+						JSONObject jsonOther = (JSONObject) jtk.nextValue();
+						if (otherCount * 2 == others.length)
+							others = Arrays.copyOf(others, others.length * 2);
+						others[otherCount * 2] = jsonOther.getDouble("x");
+						others[otherCount * 2 + 1] = jsonOther.getDouble("z");
+						otherCount++;
+						element = nextElement(jtk);
+					}
+					break;
+				default:
+					// unknown keys are skipped
+					jtk.nextValue();
+				}
+
+				switch (jtk.nextClean()) {
+				case ',':
+					if (jtk.nextClean() == '}')
+						more = false;
+					else
+						jtk.back();
+					break;
+				case '}':
+					more = false;
+					break;
+				default:
+					throw jtk.syntaxError("Expected a ',' or '}'");
+				}
 			}
 		}
 
-		if (jsonTerrain.has("roads")) {
-			JSONArray jsonRoads = jsonTerrain.getJSONArray("roads");
-			for (int i = 0; i < jsonRoads.length(); i++) {
-				JSONObject jsonRoad = jsonRoads.getJSONObject(i);
-				double w = jsonRoad.getDouble("width");
+		if (width < 0 || depth < 0)
+			throw new IOException(mapFile + " has no width or depth");
 
-				JSONArray jsonSpine = jsonRoad.getJSONArray("spine");
-				double[] spine = new double[jsonSpine.length()];
-
-				for (int j = 0; j < jsonSpine.length(); j++) {
-					spine[j] = jsonSpine.getDouble(j);
+		Terrain terrain;
+		if (altitudeFile != null && altitudeCount > 0) {
+			// the mapping is read-only, so there is nowhere to put them
+			throw new IOException(mapFile
+					+ " has both an altitude list and an altitudeFile");
+		}
+		if (altitudeFile != null) {
+			File file = new File(mapFile.getAbsoluteFile().getParentFile(),
+					altitudeFile);
+			terrain = new Terrain(new MappedHeightfield(file, width, depth,
+					false));
+		} else {
+			if (altitude == null) {
+				altitude = new float[width * depth];
+				if (altitudeCount > altitude.length) {
+					throw new IOException(mapFile + " has more than "
+							+ altitude.length + " altitudes");
+				}
+				if (spill != null) {
+					try (DataInputStream in = new DataInputStream(
+							new BufferedInputStream(new FileInputStream(
+									spill)))) {
+						for (int i = 0; i < altitudeCount; i++)
+							altitude[i] = in.readFloat();
+					}
+					spill.delete();
 				}
-				terrain.addRoad(w, spine);
 			}
+			terrain = new Terrain(new ArrayHeightfield(width, depth, altitude));
 		}
+		terrain.setSunlightDir(sunlight[0], sunlight[1], sunlight[2]);
+
+		terrain.addTrees(treeXs, treeZs, treeCount);
 
-		if (jsonTerrain.has("others")) {
-			JSONArray jsonOthers = jsonTerrain.getJSONArray("others");
-			for (int i = 0; i < jsonOthers.length(); i++) {
-				JSONObject jsonOther = jsonOthers.getJSONObject(i);
-				double x = jsonOther.getDouble("x");
-				double z = jsonOther.getDouble("z");
-				terrain.addOther(x, z);
+		for (JSONObject jsonRoad : roads) {
+			double w = jsonRoad.getDouble("width");
+
+			JSONArray jsonSpine = jsonRoad.getJSONArray("spine");
+			double[] spine = new double[jsonSpine.length()];
+
+			for (int j = 0; j < jsonSpine.length(); j++) {
+				spine[j] = jsonSpine.getDouble(j);
 			}
+			terrain.addRoad(w, spine);
+		}
+
+		for (int i = 0; i < otherCount; i++) {
+			terrain.addOther(others[i * 2], others[i * 2 + 1]);
 		}
+
+		terrain.buildMeshes();
 		return terrain;
 	}
 
 	/**
-	 * Write Terrain to a JSON file
+	 * Read the opening '[' of an array
+	 * 
+	 * @return whether the array has any elements
+	 */
+	private static boolean startArray(JSONTokener jtk) {
+		if (jtk.nextClean() != '[')
+			throw jtk.syntaxError("Expected a '['");
+		if (jtk.nextClean() == ']')
+			return false;
+		jtk.back();
+		return true;
+	}
+
+	/**
+	 * Read the separator after an array element, allowing a trailing comma
+	 * like JSONArray does
+	 * 
+	 * @return whether another element follows
+	 */
+	private static boolean nextElement(JSONTokener jtk) {
+		switch (jtk.nextClean()) {
+		case ',':
+			if (jtk.nextClean() == ']')
+				return false;
+			jtk.back();
+			return true;
+		case ']':
+			return false;
+		default:
+			throw jtk.syntaxError("Expected a ',' or ']'");
+		}
+	}
+
+	/**
+	 * Read the altitude array, either into an array of the final size or out
+	 * to a stream of floats
+	 * 
+	 * @param jtk
+	 * @param into
+	 *            or null to write to out
+	 * @param out
+	 * @param mapFile
+	 * @return the number of altitudes read
+	 * @throws IOException
+	 *             if there are more than fit in the array
+	 */
+	private static int readAltitudes(JSONTokener jtk, float[] into,
+			DataOutputStream out, File mapFile) throws IOException {
+		StringBuilder number = new StringBuilder();
+		int count = 0;
+		boolean element = startArray(jtk);
+		while (element) {
+			float h = (float) nextNumber(jtk, number);
+			if (into == null) {
+				out.writeFloat(h);
+			} else if (count < into.length) {
+				into[count] = h;
+			} else {
+				throw new IOException(mapFile + " has more than "
+						+ into.length + " altitudes");
+			}
+			count++;
+			element = nextElement(jtk);
+		}
+		return count;
+	}
+
+	/**
+	 * Read a number without going through a boxed value. Like
+	 * JSONArray.getDouble, the number may also be a string.
+	 * 
+	 * @param jtk
+	 * @param number
+	 *            reused to hold the number's characters
+	 * @return
+	 */
+	private static double nextNumber(JSONTokener jtk, StringBuilder number) {
+		char c = jtk.nextClean();
+		String text;
+		if (c == '"' || c == '\'') {
+			text = jtk.nextString(c);
+		} else {
+			// unquoted text ends where JSONTokener.nextValue ends it
+			number.setLength(0);
+			while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+				number.append(c);
+				c = jtk.next();
+			}
+			jtk.back();
+			text = number.toString();
+		}
+		try {
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			throw jtk.syntaxError("Expected a number");
+		}
+	}
+
+	/**
+	 * Convert a value to an int the way JSONObject.getInt does
+	 */
+	private static int toInt(JSONTokener jtk, Object value) {
+		try {
+			return value instanceof Number ? ((Number) value).intValue()
+					: Integer.parseInt((String) value);
+		} catch (Exception e) {
+			throw jtk.syntaxError("Expected a whole number");
+		}
+	}
+
+	/**
+	 * Write Terrain to a JSON file. The file is streamed out as it is
+	 * written, so saving takes the same small amount of memory whatever the
+	 * size of the terrain.
 	 * 
 	 * @param file
 	 * @throws IOException
 	 */
 	public static void save(Terrain terrain, File file) throws IOException {
-		JSONObject json = new JSONObject();
-
-		Dimension size = terrain.size();
-		json.put("width", size.width);
-		json.put("depth", size.height);
-
-		JSONArray jsonSun = new JSONArray();
-		float[] sunlight = terrain.getSunlight();
-		jsonSun.put(sunlight[0]);
-		jsonSun.put(sunlight[1]);
-		jsonSun.put(sunlight[2]);
-		json.put("sunlight", jsonSun);
-
-		JSONArray altitude = new JSONArray();
-		for (int i = 0; i < size.width; i++) {
-			for (int j = 0; j < size.height; j++) {
-				altitude.put(terrain.getGridAltitude(i, j));
+		save(terrain, file, null);
+	}
+
+	/**
+	 * Write Terrain to a JSON file, with its altitudes in a file of their own
+	 * that the level maps when it is loaded. Altitudes that are already
+	 * mapped from a file are left where they are.
+	 * 
+	 * @param file
+	 * @param altitudeFile
+	 *            where to write the altitudes, or null to put them in the
+	 *            JSON
+	 * @throws IOException
+	 */
+	public static void save(Terrain terrain, File file, File altitudeFile)
+			throws IOException {
+		Heightfield heightfield = terrain.getHeightfield();
+		if (heightfield instanceof MappedHeightfield) {
+			altitudeFile = ((MappedHeightfield) heightfield).getFile();
+		} else if (altitudeFile != null) {
+			MappedHeightfield.write(heightfield, altitudeFile);
+		}
+
+		try (Writer out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+			JSONWriter json = new JSONWriter(out);
+			json.object();
+
+			Dimension size = terrain.size();
+			json.key("width").value(size.width);
+			json.key("depth").value(size.height);
+
+			float[] sunlight = terrain.getSunlight();
+			json.key("sunlight").array();
+			json.value(sunlight[0]).value(sunlight[1]).value(sunlight[2]);
+			json.endArray();
+
+			if (altitudeFile != null) {
+				Path directory = file.getAbsoluteFile().getParentFile().toPath();
+				json.key("altitudeFile").value(
+						directory.relativize(altitudeFile.getAbsoluteFile()
+								.toPath()).toString());
+			} else {
+				// the altitudes go straight to the file, row by row, between
+				// the brackets JSONWriter writes
+				json.key("altitude").array();
+				char[] digits = new char[32];
+				for (int z = 0; z < size.height; z++) {
+					for (int x = 0; x < size.width; x++) {
+						if (x > 0 || z > 0)
+							out.write(',');
+						writeNumber(out, digits, heightfield.get(x, z));
+					}
+				}
+				json.endArray();
+			}
+
+			json.key("trees").array();
+			for (Tree t : terrain.trees()) {
+				double[] position = t.getPosition();
+				json.object();
+				json.key("x").value(position[0]);
+				json.key("z").value(position[2]);
+				json.endObject();
 			}
+			json.endArray();
+
+			json.key("roads").array();
+			double[] p = new double[2];
+			for (Road r : terrain.roads()) {
+				json.object();
+				json.key("width").value(r.width());
+				json.key("spine").array();
+				int n = r.size();
+
+				for (int i = 0; i <= n * 3; i++) {
+					r.controlPoint(i, p);
+					json.value(p[0]).value(p[1]);
+				}
+				json.endArray();
+				json.endObject();
+			}
+			json.endArray();
+
+			json.key("others").array();
+			for (Other o : terrain.others()) {
+				// others only keep their x and z
+				double[] position = o.getPosition();
+				json.object();
+				json.key("x").value(position[0]);
+				json.key("z").value(position[1]);
+				json.endObject();
+			}
+			json.endArray();
+
+			json.endObject();
+		}
+	}
+
+	/**
+	 * Write an altitude without going through a String, to a millionth of a
+	 * unit and without trailing zeros. Numbers too large for that fall back
+	 * to Float.toString.
+	 * 
+	 * @param out
+	 * @param digits
+	 *            scratch space
+	 * @param value
+	 * @throws IOException
+	 *             if the value is NaN or infinite, which JSON cannot hold
+	 */
+	private static void writeNumber(Writer out, char[] digits, float value)
+			throws IOException {
+		if (Float.isNaN(value) || Float.isInfinite(value))
+			throw new IOException("JSON cannot hold the altitude " + value);
+		if (Math.abs(value) >= 1e12f) {
+			out.write(Float.toString(value));
+			return;
+		}
+
+		long scaled = Math.round(Math.abs((double) value) * 1e6);
+		int end = digits.length;
+		int i = end;
+		// the six decimal places, skipping trailing zeros
+		boolean trailing = true;
+		for (int place = 0; place < 6; place++) {
+			int digit = (int) (scaled % 10);
+			scaled /= 10;
+			if (trailing && digit == 0)
+				continue;
+			trailing = false;
+			digits[--i] = (char) ('0' + digit);
+		}
+		if (i < end)
+			digits[--i] = '.';
+		do {
+			digits[--i] = (char) ('0' + scaled % 10);
+			scaled /= 10;
+		} while (scaled > 0);
+		if (value < 0 && !(i == end - 1 && digits[i] == '0'))
+			digits[--i] = '-';
+		out.write(digits, i, end - i);
+	}
+
+	/**
+	 * Load a terrain object from a binary level file. All numbers are little
+	 * endian. The file holds:
+	 * 
+	 * <pre>
+	 * int magic "LEVL", int version, int width, int depth, float[3] sunlight
+	 * float[width * depth] altitudes, row by row
+	 * int trees, then x and z (double) of each
+	 * int roads, then width (double), spine length (int), spine (double[])
+	 * int others, then x and z (double) of each
+	 * </pre>
+	 * 
+	 * @param mapFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static Terrain loadBinary(File mapFile) throws IOException {
+		ByteBuffer in;
+		try (RandomAccessFile raf = new RandomAccessFile(mapFile, "r");
+				FileChannel channel = raf.getChannel()) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
 		}
-		json.put("altitude", altitude);
+		in.order(ByteOrder.LITTLE_ENDIAN);
 
-		JSONArray trees = new JSONArray();
-		for (Tree t : terrain.trees()) {
-			JSONObject j = new JSONObject();
-			double[] position = t.getPosition();
-			j.put("x", position[0]);
-			j.put("z", position[2]);
-			trees.put(j);
+		if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC) {
+			throw new IOException(mapFile + " is not a binary level");
+		}
+		int version = in.getInt();
+		if (version > VERSION) {
+			throw new IOException(mapFile + " is level version " + version
+					+ ", only " + VERSION + " is supported");
 		}
-		json.put("trees", trees);
 
-		JSONArray roads = new JSONArray();
-		for (Road r : terrain.roads()) {
-			JSONObject j = new JSONObject();
-			j.put("width", r.width());
+		int width = in.getInt();
+		int depth = in.getInt();
+		if (width < 0 || depth < 0)
+			throw new IOException(mapFile + " has a negative size");
+		// the sunlight, altitudes and the tree count
+		require(in, 3 * Float.BYTES + (long) width * depth * Float.BYTES
+				+ Integer.BYTES, mapFile);
+		ArrayHeightfield heightfield = new ArrayHeightfield(width, depth);
+		Terrain terrain = new Terrain(heightfield);
+		terrain.setSunlightDir(in.getFloat(), in.getFloat(), in.getFloat());
 
-			JSONArray spine = new JSONArray();
-			int n = r.size();
+		// one bulk copy straight into the heightfield
+		float[] altitude = heightfield.getArray();
+		in.asFloatBuffer().get(altitude);
+		in.position(in.position() + altitude.length * Float.BYTES);
 
-			for (int i = 0; i <= n * 3; i++) {
-				double[] p = r.controlPoint(i);
-				spine.put(p[0]);
-				spine.put(p[1]);
-			}
-			j.put("spine", spine);
-			roads.put(j);
+		int trees = in.getInt();
+		require(in, 2L * trees * Double.BYTES + Integer.BYTES, mapFile);
+		double[] treeXs = new double[trees];
+		double[] treeZs = new double[trees];
+		for (int i = 0; i < trees; i++) {
+			treeXs[i] = in.getDouble();
+			treeZs[i] = in.getDouble();
 		}
-		json.put("roads", roads);
+		terrain.addTrees(treeXs, treeZs, trees);
 
-		JSONArray others = new JSONArray();
-		for (Other o : terrain.others()) {
-			JSONObject j = new JSONObject();
-			double[] position = o.getPosition();
-			j.put("x", position[0]);
-			j.put("z", position[2]);
-			trees.put(j);
+		int roads = in.getInt();
+		for (int i = 0; i < roads; i++) {
+			require(in, Double.BYTES + Integer.BYTES, mapFile);
+			double w = in.getDouble();
+			int points = in.getInt();
+			require(in, (long) points * Double.BYTES, mapFile);
+			double[] spine = new double[points];
+			in.asDoubleBuffer().get(spine);
+			in.position(in.position() + spine.length * Double.BYTES);
+			terrain.addRoad(w, spine);
 		}
-		json.put("others", others);
 
-		FileWriter out = new FileWriter(file);
-		json.write(out);
-		out.close();
+		require(in, Integer.BYTES, mapFile);
+		int others = in.getInt();
+		require(in, 2L * others * Double.BYTES, mapFile);
+		for (int i = 0; i < others; i++) {
+			terrain.addOther(in.getDouble(), in.getDouble());
+		}
 
+		terrain.buildMeshes();
+		return terrain;
 	}
 
 	/**
-	 * For testing.
+	 * Check that a binary level has the given number of bytes left, so a
+	 * truncated file fails with an IOException rather than running off the
+	 * end of the buffer
+	 * 
+	 * @throws IOException
+	 */
+	private static void require(ByteBuffer in, long bytes, File mapFile)
+			throws IOException {
+		if (bytes < 0 || in.remaining() < bytes) {
+			throw new IOException(mapFile + " is truncated or corrupt at byte "
+					+ in.position());
+		}
+	}
+
+	/**
+	 * Write Terrain to a binary level file, see loadBinary for the layout
+	 * 
+	 * @param terrain
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void saveBinary(Terrain terrain, File file)
+			throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				FileChannel channel = raf.getChannel()) {
+			channel.truncate(0);
+			ByteBuffer out = ByteBuffer.allocateDirect(1 << 16).order(
+					ByteOrder.LITTLE_ENDIAN);
+
+			Dimension size = terrain.size();
+			float[] sunlight = terrain.getSunlight();
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(size.width);
+			out.putInt(size.height);
+			out.putFloat(sunlight[0]);
+			out.putFloat(sunlight[1]);
+			out.putFloat(sunlight[2]);
+
+			Heightfield heightfield = terrain.getHeightfield();
+			for (int z = 0; z < size.height; z++) {
+				for (int x = 0; x < size.width; x++) {
+					reserve(channel, out, Float.BYTES);
+					out.putFloat(heightfield.get(x, z));
+				}
+			}
+
+			reserve(channel, out, Integer.BYTES);
+			out.putInt(terrain.trees().size());
+			for (Tree t : terrain.trees()) {
+				double[] position = t.getPosition();
+				reserve(channel, out, 2 * Double.BYTES);
+				out.putDouble(position[0]);
+				out.putDouble(position[2]);
+			}
+
+			reserve(channel, out, Integer.BYTES);
+			out.putInt(terrain.roads().size());
+			double[] p = new double[2];
+			for (Road r : terrain.roads()) {
+				int points = r.size() * 3 + 1;
+				reserve(channel, out, Double.BYTES + Integer.BYTES);
+				out.putDouble(r.width());
+				out.putInt(points * 2);
+				for (int i = 0; i < points; i++) {
+					r.controlPoint(i, p);
+					reserve(channel, out, 2 * Double.BYTES);
+					out.putDouble(p[0]);
+					out.putDouble(p[1]);
+				}
+			}
+
+			reserve(channel, out, Integer.BYTES);
+			out.putInt(terrain.others().size());
+			for (Other o : terrain.others()) {
+				double[] position = o.getPosition();
+				reserve(channel, out, 2 * Double.BYTES);
+				// others only keep their x and z
+				out.putDouble(position[0]);
+				out.putDouble(position[1]);
+			}
+
+			out.flip();
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+		}
+	}
+
+	/**
+	 * Write out the buffer if it does not have room for the given number of
+	 * bytes
+	 */
+	private static void reserve(FileChannel channel, ByteBuffer out,
+			int bytes) throws IOException {
+		if (out.remaining() < bytes) {
+			out.flip();
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+			out.clear();
+		}
+	}
+
+	/**
+	 * Convert between level formats, choosing binary or JSON by the files'
+	 * extensions.
 	 * 
 	 * @param args
+	 *            the level to read and the level to write, then optionally
+	 *            a file to write a JSON level's altitudes to
 	 * @throws IOException
 	 */
 	public static void main(String[] args) throws IOException {
-		Terrain terrain = LevelIO.load(new File(args[0]));
-		LevelIO.save(terrain, new File(args[1]));
+		File in = new File(args[0]);
+		File out = new File(args[1]);
+
+		Terrain terrain;
+		if (in.getName().endsWith(BINARY_EXTENSION)) {
+			terrain = LevelIO.loadBinary(in);
+		} else {
+			terrain = LevelIO.load(in);
+		}
+
+		if (out.getName().endsWith(BINARY_EXTENSION)) {
+			LevelIO.saveBinary(terrain, out);
+		} else {
+			LevelIO.save(terrain, out, args.length > 2 ? new File(args[2])
+					: null);
+		}
 	}
 
 }
@@ -0,0 +1,166 @@
+package World.spec;
+
+import javax.media.opengl.GL2;
+
+/**
+ * Lights class, the sun, moon and torch, kept on the CPU and handed to the
+ * shaders as uniforms instead of living in the fixed function light state.
+ * Positions and directions are in world space.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class Lights {
+
+	public static final int SUN = 0;
+	public static final int MOON = 1;
+	public static final int TORCH = 2;
+	public static final int COUNT = 3;
+
+	private float[] positions = new float[COUNT * 4];
+	private float[] ambients = new float[COUNT * 4];
+	private float[] diffuses = new float[COUNT * 4];
+	private float[] speculars = new float[COUNT * 4];
+	private float[] spotDirections = new float[COUNT * 3];
+	private float[] spotCosCutoffs = new float[COUNT];
+	private float[] spotExponents = new float[COUNT];
+	private float[] enabled = new float[COUNT];
+	// the fixed function default light model ambient
+	private float[] sceneAmbient = { 0.2f, 0.2f, 0.2f, 1.0f };
+
+	/**
+	 * Every light off, black and pointing down the z axis, as OpenGL's lights
+	 * start out
+	 */
+	public Lights() {
+		for (int i = 0; i < COUNT; i++) {
+			positions[i * 4 + 2] = 1;
+			ambients[i * 4 + 3] = 1;
+			diffuses[i * 4 + 3] = 1;
+			speculars[i * 4 + 3] = 1;
+			spotDirections[i * 3 + 2] = -1;
+			spotCosCutoffs[i] = -1;
+		}
+	}
+
+	/**
+	 * Set a light's position, or its direction if w is 0
+	 * 
+	 * @param light
+	 * @param position
+	 *            x, y, z and w
+	 */
+	public void setPosition(int light, float[] position) {
+		System.arraycopy(position, 0, positions, light * 4, 4);
+	}
+
+	/**
+	 * Set a light's ambient colour
+	 * 
+	 * @param light
+	 * @param color
+	 *            red, green, blue and optionally alpha
+	 */
+	public void setAmbient(int light, float[] color) {
+		setColor(ambients, light, color);
+	}
+
+	/**
+	 * Set a light's diffuse colour
+	 * 
+	 * @param light
+	 * @param color
+	 *            red, green, blue and optionally alpha
+	 */
+	public void setDiffuse(int light, float[] color) {
+		setColor(diffuses, light, color);
+	}
+
+	/**
+	 * Set a light's specular colour
+	 * 
+	 * @param light
+	 * @param color
+	 *            red, green, blue and optionally alpha
+	 */
+	public void setSpecular(int light, float[] color) {
+		setColor(speculars, light, color);
+	}
+
+	private static void setColor(float[] colors, int light, float[] color) {
+		System.arraycopy(color, 0, colors, light * 4, Math.min(color.length,
+				4));
+	}
+
+	/**
+	 * Make a positional light a spotlight
+	 * 
+	 * @param light
+	 * @param direction
+	 *            x, y and z
+	 * @param cutoff
+	 *            half angle of the cone in degrees, 180 for no cone
+	 * @param exponent
+	 */
+	public void setSpot(int light, float[] direction, float cutoff,
+			float exponent) {
+		System.arraycopy(direction, 0, spotDirections, light * 3, 3);
+		spotCosCutoffs[light] = cutoff >= 180 ? -1 : (float) Math.cos(Math
+				.toRadians(cutoff));
+		spotExponents[light] = exponent;
+	}
+
+	/**
+	 * Set just the direction of a spotlight
+	 * 
+	 * @param light
+	 * @param direction
+	 */
+	public void setSpotDirection(int light, float[] direction) {
+		System.arraycopy(direction, 0, spotDirections, light * 3, 3);
+	}
+
+	public void setEnabled(int light, boolean on) {
+		enabled[light] = on ? 1 : 0;
+	}
+
+	public boolean isEnabled(int light) {
+		return enabled[light] != 0;
+	}
+
+	/**
+	 * Look up where a program keeps the light uniforms
+	 * 
+	 * @param program
+	 * @return the locations, for apply
+	 */
+	public static int[] locate(ShaderProgram program) {
+		return new int[] { program.getUniformLocation("lightPosition"),
+				program.getUniformLocation("lightAmbient"),
+				program.getUniformLocation("lightDiffuse"),
+				program.getUniformLocation("lightSpecular"),
+				program.getUniformLocation("spotDirection"),
+				program.getUniformLocation("spotCosCutoff"),
+				program.getUniformLocation("spotExponent"),
+				program.getUniformLocation("lightEnabled"),
+				program.getUniformLocation("sceneAmbient") };
+	}
+
+	/**
+	 * Set the light uniforms of the program in use
+	 * 
+	 * @param gl
+	 * @param locations
+	 *            from locate
+	 */
+	public void apply(GL2 gl, int[] locations) {
+		gl.glUniform4fv(locations[0], COUNT, positions, 0);
+		gl.glUniform4fv(locations[1], COUNT, ambients, 0);
+		gl.glUniform4fv(locations[2], COUNT, diffuses, 0);
+		gl.glUniform4fv(locations[3], COUNT, speculars, 0);
+		gl.glUniform3fv(locations[4], COUNT, spotDirections, 0);
+		gl.glUniform1fv(locations[5], COUNT, spotCosCutoffs, 0);
+		gl.glUniform1fv(locations[6], COUNT, spotExponents, 0);
+		gl.glUniform3fv(locations[7], 1, enabled, 0);
+		gl.glUniform4fv(locations[8], 1, sceneAmbient, 0);
+	}
+}
@@ -0,0 +1,149 @@
+package World.spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedHeightfield class, reads the altitudes straight out of a memory-mapped
+ * file of raw little-endian floats. Nothing is read up front; the operating
+ * system pages the file in as the altitudes are touched, so maps larger than
+ * the heap open instantly. A heightfield mapped read-only refuses set() with
+ * an IllegalStateException rather than failing inside the mapping.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class MappedHeightfield implements Heightfield {
+
+	// a single mapping is limited to 2 GB, so the file is mapped in 1 GB parts
+	private static final int SEGMENT_SHIFT = 28;
+	private static final long SEGMENT_FLOATS = 1L << SEGMENT_SHIFT;
+	private static final long SEGMENT_MASK = SEGMENT_FLOATS - 1;
+
+	private int myWidth;
+	private int myDepth;
+	private File myFile;
+	private boolean myWritable;
+	private FloatBuffer[] mySegments;
+
+	/**
+	 * Map a heightfield file
+	 *
+	 * @param file
+	 *            width * depth little-endian floats, row by row
+	 * @param width
+	 * @param depth
+	 * @param writable
+	 *            whether set() writes through to the file, otherwise it
+	 *            throws
+	 * @throws IOException
+	 *             if the file is missing or too short
+	 */
+	public MappedHeightfield(File file, int width, int depth, boolean writable)
+			throws IOException {
+		myWidth = width;
+		myDepth = depth;
+		myFile = file;
+		myWritable = writable;
+
+		long floats = (long) width * depth;
+		try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw"
+				: "r"); FileChannel channel = raf.getChannel()) {
+			if (channel.size() < floats * Float.BYTES) {
+				throw new IOException(file + " holds " + channel.size()
+						+ " bytes, a " + width + "x" + depth
+						+ " heightfield needs " + floats * Float.BYTES);
+			}
+
+			FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE
+					: FileChannel.MapMode.READ_ONLY;
+			int segments = (int) ((floats + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+			mySegments = new FloatBuffer[segments];
+			for (int i = 0; i < segments; i++) {
+				long start = i * SEGMENT_FLOATS;
+				long length = Math.min(SEGMENT_FLOATS, floats - start);
+				ByteBuffer bytes = channel.map(mode, start * Float.BYTES,
+						length * Float.BYTES);
+				mySegments[i] = bytes.order(ByteOrder.LITTLE_ENDIAN)
+						.asFloatBuffer();
+			}
+		}
+	}
+
+	@Override
+	public int getWidth() {
+		return myWidth;
+	}
+
+	@Override
+	public int getDepth() {
+		return myDepth;
+	}
+
+	@Override
+	public float get(int x, int z) {
+		long i = (long) z * myWidth + x;
+		return mySegments[(int) (i >>> SEGMENT_SHIFT)]
+				.get((int) (i & SEGMENT_MASK));
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if the file was mapped read-only
+	 */
+	@Override
+	public void set(int x, int z, float h) {
+		if (!myWritable)
+			throw new IllegalStateException(myFile + " is mapped read-only");
+		long i = (long) z * myWidth + x;
+		mySegments[(int) (i >>> SEGMENT_SHIFT)].put((int) (i & SEGMENT_MASK),
+				h);
+	}
+
+	/**
+	 * A mapped file cannot change size, so a resized heightfield is kept on
+	 * the heap instead
+	 */
+	@Override
+	public Heightfield create(int width, int depth) {
+		return new ArrayHeightfield(width, depth);
+	}
+
+	public File getFile() {
+		return myFile;
+	}
+
+	/**
+	 * Write any heightfield to a file that can be mapped
+	 *
+	 * @param heightfield
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(Heightfield heightfield, File file)
+			throws IOException {
+		int width = heightfield.getWidth();
+		int depth = heightfield.getDepth();
+		ByteBuffer row = ByteBuffer.allocateDirect(width * Float.BYTES).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				FileChannel channel = raf.getChannel()) {
+			channel.truncate(0);
+			for (int z = 0; z < depth; z++) {
+				row.clear();
+				for (int x = 0; x < width; x++) {
+					row.putFloat(heightfield.get(x, z));
+				}
+				row.flip();
+				while (row.hasRemaining()) {
+					channel.write(row);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package World.spec;
+
+import javax.media.opengl.GL2;
+
+/**
+ * Material class, the surface colours a lit shader multiplies the lights by,
+ * in place of glMaterial
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class Material {
+
+	private float[] myAmbient;
+	private float[] myDiffuse;
+	private float[] mySpecular;
+	private float myShininess;
+
+	/**
+	 * @param ambient
+	 *            red, green, blue and alpha
+	 * @param diffuse
+	 *            red, green, blue and alpha
+	 * @param specular
+	 *            red, green, blue and alpha
+	 * @param shininess
+	 */
+	public Material(float[] ambient, float[] diffuse, float[] specular,
+			float shininess) {
+		myAmbient = ambient;
+		myDiffuse = diffuse;
+		mySpecular = specular;
+		myShininess = shininess;
+	}
+
+	public float[] getAmbient() {
+		return myAmbient;
+	}
+
+	public float[] getDiffuse() {
+		return myDiffuse;
+	}
+
+	public float[] getSpecular() {
+		return mySpecular;
+	}
+
+	public float getShininess() {
+		return myShininess;
+	}
+
+	/**
+	 * Look up where a program keeps the material uniforms
+	 * 
+	 * @param program
+	 * @return the locations, for apply
+	 */
+	public static int[] locate(ShaderProgram program) {
+		return new int[] { program.getUniformLocation("materialAmbient"),
+				program.getUniformLocation("materialDiffuse"),
+				program.getUniformLocation("materialSpecular"),
+				program.getUniformLocation("materialShininess") };
+	}
+
+	/**
+	 * Set the material uniforms of the program in use
+	 * 
+	 * @param gl
+	 * @param locations
+	 *            from locate
+	 */
+	public void apply(GL2 gl, int[] locations) {
+		gl.glUniform4fv(locations[0], 1, myAmbient, 0);
+		gl.glUniform4fv(locations[1], 1, myDiffuse, 0);
+		gl.glUniform4fv(locations[2], 1, mySpecular, 0);
+		gl.glUniform1f(locations[3], myShininess);
+	}
+}
@@ -41,4 +41,174 @@ public class MathUtil {
 		return newVector;
 	}
 
+	/**
+	 * Fills m with a perspective projection matrix, in the same column-major
+	 * layout as gluPerspective
+	 * 
+	 * @param fieldOfView
+	 *            vertical field of view in degrees
+	 * @param aspectRatio
+	 * @param near
+	 * @param far
+	 * @param m
+	 * @return m
+	 */
+	public static double[] perspective(double fieldOfView, double aspectRatio,
+			double near, double far, double[] m) {
+		double f = 1 / Math.tan(Math.toRadians(fieldOfView) / 2);
+		for (int i = 0; i < 16; i++)
+			m[i] = 0;
+		m[0] = f / aspectRatio;
+		m[5] = f;
+		m[10] = (far + near) / (near - far);
+		m[11] = -1;
+		m[14] = 2 * far * near / (near - far);
+		return m;
+	}
+
+	/**
+	 * Fills m with a viewing matrix, in the same column-major layout as
+	 * gluLookAt
+	 * 
+	 * @param eye
+	 * @param center
+	 * @param up
+	 * @param m
+	 * @return m
+	 */
+	public static double[] lookAt(double[] eye, double[] center, double[] up,
+			double[] m) {
+		double fx = center[0] - eye[0];
+		double fy = center[1] - eye[1];
+		double fz = center[2] - eye[2];
+		double fLength = Math.sqrt(fx * fx + fy * fy + fz * fz);
+		fx /= fLength;
+		fy /= fLength;
+		fz /= fLength;
+
+		// s = f x up
+		double sx = fy * up[2] - fz * up[1];
+		double sy = fz * up[0] - fx * up[2];
+		double sz = fx * up[1] - fy * up[0];
+		double sLength = Math.sqrt(sx * sx + sy * sy + sz * sz);
+		sx /= sLength;
+		sy /= sLength;
+		sz /= sLength;
+
+		// u = s x f
+		double ux = sy * fz - sz * fy;
+		double uy = sz * fx - sx * fz;
+		double uz = sx * fy - sy * fx;
+
+		m[0] = sx;
+		m[1] = ux;
+		m[2] = -fx;
+		m[3] = 0;
+		m[4] = sy;
+		m[5] = uy;
+		m[6] = -fy;
+		m[7] = 0;
+		m[8] = sz;
+		m[9] = uz;
+		m[10] = -fz;
+		m[11] = 0;
+		m[12] = -(sx * eye[0] + sy * eye[1] + sz * eye[2]);
+		m[13] = -(ux * eye[0] + uy * eye[1] + uz * eye[2]);
+		m[14] = fx * eye[0] + fy * eye[1] + fz * eye[2];
+		m[15] = 1;
+		return m;
+	}
+
+	/**
+	 * Multiplies two column-major 4x4 matrices, m = a * b. m must not be a or
+	 * b.
+	 * 
+	 * @param a
+	 * @param b
+	 * @param m
+	 * @return m
+	 */
+	public static double[] multiplyMatrix(double[] a, double[] b, double[] m) {
+		for (int col = 0; col < 4; col++) {
+			for (int row = 0; row < 4; row++) {
+				double sum = 0;
+				for (int k = 0; k < 4; k++) {
+					sum += a[k * 4 + row] * b[col * 4 + k];
+				}
+				m[col * 4 + row] = sum;
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Fills m with an orthographic projection matrix, in the same
+	 * column-major layout as glOrtho
+	 * 
+	 * @param left
+	 * @param right
+	 * @param bottom
+	 * @param top
+	 * @param near
+	 * @param far
+	 * @param m
+	 * @return m
+	 */
+	public static double[] ortho(double left, double right, double bottom,
+			double top, double near, double far, double[] m) {
+		for (int i = 0; i < 16; i++)
+			m[i] = 0;
+		m[0] = 2 / (right - left);
+		m[5] = 2 / (top - bottom);
+		m[10] = -2 / (far - near);
+		m[12] = -(right + left) / (right - left);
+		m[13] = -(top + bottom) / (top - bottom);
+		m[14] = -(far + near) / (far - near);
+		m[15] = 1;
+		return m;
+	}
+
+	/**
+	 * Fills m with a translation by (x, y, z) followed by a rotation about
+	 * the y axis, the same as glTranslated then glRotated
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param angle
+	 *            in degrees
+	 * @param m
+	 * @return m
+	 */
+	public static double[] translateRotateY(double x, double y, double z,
+			double angle, double[] m) {
+		double c = Math.cos(Math.toRadians(angle));
+		double s = Math.sin(Math.toRadians(angle));
+		for (int i = 0; i < 16; i++)
+			m[i] = 0;
+		m[0] = c;
+		m[2] = -s;
+		m[5] = 1;
+		m[8] = s;
+		m[10] = c;
+		m[12] = x;
+		m[13] = y;
+		m[14] = z;
+		m[15] = 1;
+		return m;
+	}
+
+	/**
+	 * Copies a matrix into floats, for passing to a shader
+	 * 
+	 * @param m
+	 * @param out
+	 * @return out
+	 */
+	public static float[] toFloats(double[] m, float[] out) {
+		for (int i = 0; i < m.length; i++)
+			out[i] = (float) m[i];
+		return out;
+	}
+
 }
@@ -0,0 +1,209 @@
+package World.spec;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * OtherBatch class, packs every other into one vertex buffer and one index
+ * buffer and draws them all with a single program bind and a single draw
+ * call. It is its own program and draw for the render queue.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class OtherBatch implements RenderProgram, RenderItem {
+
+	private static final String VERTEX_SHADER = "Shaders/AttributeVertex.glsl";
+	private static final String FRAGMENT_SHADER = "Shaders/AttributeFragment.glsl";
+
+	// floats per vertex: position (3), color (3)
+	private static final int VERTEX_SIZE = 6;
+	private static final int STRIDE = VERTEX_SIZE * Float.BYTES;
+	private static final int COLOR_OFFSET = 3 * Float.BYTES;
+
+	private List<Other> myOthers;
+
+	private FloatBuffer vertexData;
+	private IntBuffer indexData;
+	private int indexCount;
+	private boolean built = false;
+	private boolean uploaded = false;
+
+	// vertices, indices
+	private int bufferIds[] = new int[2];
+	private int vertexArray[] = new int[1];
+
+	private ShaderProgram shader;
+	private int viewProjectionLoc;
+
+	public OtherBatch(List<Other> others) {
+		myOthers = others;
+	}
+
+	/**
+	 * Mark the batch as out of date, after others are added
+	 */
+	public void invalidate() {
+		built = false;
+	}
+
+	/**
+	 * Pack every other's vertices and triangles into the batch. Does not need
+	 * a GL context.
+	 */
+	public void build() {
+		if (built)
+			return;
+
+		int vertices = 0;
+		int indices = 0;
+		for (Other o : myOthers) {
+			vertices += o.getPositions().length / 3;
+			indices += o.getIndexes().length;
+		}
+		vertexData = Buffers.newDirectFloatBuffer(Math.max(vertices, 1)
+				* VERTEX_SIZE);
+		indexData = Buffers.newDirectIntBuffer(Math.max(indices, 1));
+
+		int first = 0;
+		for (Other o : myOthers) {
+			float[] positions = o.getPositions();
+			float[] colors = o.getColors();
+			for (int i = 0; i < positions.length; i += 3) {
+				vertexData.put(positions, i, 3);
+				vertexData.put(colors, i, 3);
+			}
+			for (short index : o.getIndexes()) {
+				indexData.put(first + index);
+			}
+			first += positions.length / 3;
+		}
+		vertexData.flip();
+		indexData.flip();
+		indexCount = indices;
+
+		built = true;
+		uploaded = false;
+	}
+
+	/**
+	 * Create the buffers and vertex array and load the shader
+	 *
+	 * @param gl
+	 */
+	public void init(GL2 gl) {
+		gl.glGenBuffers(2, bufferIds, 0);
+		gl.glGenVertexArrays(1, vertexArray, 0);
+		GLState.getInstance().bindVertexArray(gl, vertexArray[0]);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, bufferIds[0]);
+		gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_POS);
+		gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_COL);
+		gl.glVertexAttribPointer(ShaderProgram.VERTEX_POS, 3, GL.GL_FLOAT,
+				false, STRIDE, 0);
+		gl.glVertexAttribPointer(ShaderProgram.VERTEX_COL, 3, GL.GL_FLOAT,
+				false, STRIDE, COLOR_OFFSET);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER,
+				bufferIds[1]);
+		GLState.getInstance().bindVertexArray(gl, 0);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, 0);
+
+		try {
+			shader = ShaderRegistry.getInstance().load(gl, VERTEX_SHADER,
+					FRAGMENT_SHADER);
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		viewProjectionLoc = shader.getUniformLocation("viewProjection");
+	}
+
+	/**
+	 * Copy the packed others into the buffers, building them first if they
+	 * have changed
+	 */
+	private void upload(GL2 gl) {
+		build();
+
+		// the element binding belongs to the vertex array, so upload the
+		// indices through ours rather than whichever is bound
+		GLState.getInstance().bindVertexArray(gl, vertexArray[0]);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, bufferIds[0]);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, vertexData.limit() * Float.BYTES,
+				vertexData, GL.GL_STATIC_DRAW);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER,
+				bufferIds[1]);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, indexData.limit()
+				* Integer.BYTES, indexData, GL.GL_STATIC_DRAW);
+		GLState.getInstance().bindVertexArray(gl, 0);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, 0);
+		vertexData = null;
+		indexData = null;
+
+		uploaded = true;
+	}
+
+	/**
+	 * Queue every other as one draw
+	 *
+	 * @param gl
+	 * @param queue
+	 */
+	public void submit(GL2 gl, RenderQueue queue) {
+		if (!built || !uploaded)
+			upload(gl);
+		if (indexCount == 0)
+			return;
+
+		queue.submit(this, null, RenderQueue.NO_LAYER, null, vertexArray[0],
+				0, this);
+	}
+
+	@Override
+	public void draw(GL2 gl) {
+		gl.glDrawElements(GL.GL_TRIANGLES, indexCount, GL.GL_UNSIGNED_INT, 0);
+	}
+
+	@Override
+	public ShaderProgram getProgram() {
+		return shader;
+	}
+
+	@Override
+	public void use(GL2 gl, float[] viewProjection, Lights lights) {
+		GLState.getInstance().useProgram(gl, shader.getId());
+		shader.setUniformMatrix4(gl, viewProjectionLoc, viewProjection);
+	}
+
+	@Override
+	public void setMaterial(GL2 gl, Material material) {
+		// others are coloured per vertex
+	}
+
+	@Override
+	public void setLayer(GL2 gl, int layer) {
+		// others are not textured
+	}
+
+	/**
+	 * Delete the buffers and vertex array and let go of the shader
+	 *
+	 * @param gl
+	 */
+	public void release(GL2 gl) {
+		if (bufferIds[0] > 0) {
+			GLState.getInstance().deleteBuffers(gl, 2, bufferIds);
+			GLState.getInstance().deleteVertexArrays(gl, 1, vertexArray);
+			bufferIds[0] = 0;
+			vertexArray[0] = 0;
+		}
+		if (shader != null) {
+			shader.release(gl);
+			shader = null;
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package World.spec;
+
+import javax.media.opengl.GL2;
+
+/**
+ * RenderItem interface, one draw submitted to the RenderQueue
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public interface RenderItem {
+
+	/**
+	 * Issue the draw call. The queue has already bound the item's program,
+	 * texture, material and vertex array, so only per item uniforms such as
+	 * a model matrix are left to set.
+	 *
+	 * @param gl
+	 */
+	public void draw(GL2 gl);
+}
@@ -0,0 +1,47 @@
+package World.spec;
+
+import javax.media.opengl.GL2;
+
+/**
+ * RenderProgram interface, a shader program the RenderQueue can switch to
+ * and set state on. The queue only calls these when the state actually
+ * changes.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public interface RenderProgram {
+
+	/**
+	 * The linked program, which the queue sorts and compares by
+	 *
+	 * @return
+	 */
+	public ShaderProgram getProgram();
+
+	/**
+	 * Start drawing with the program, setting the uniforms that stay the
+	 * same for the whole frame
+	 *
+	 * @param gl
+	 * @param viewProjection
+	 *            column major
+	 * @param lights
+	 */
+	public void use(GL2 gl, float[] viewProjection, Lights lights);
+
+	/**
+	 * Set the material of the program in use
+	 *
+	 * @param gl
+	 * @param material
+	 */
+	public void setMaterial(GL2 gl, Material material);
+
+	/**
+	 * Pick the image in the bound texture array to draw with
+	 *
+	 * @param gl
+	 * @param layer
+	 */
+	public void setLayer(GL2 gl, int layer);
+}
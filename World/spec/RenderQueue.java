@@ -0,0 +1,240 @@
+package World.spec;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.media.opengl.GL2;
+
+/**
+ * RenderQueue class, collects a frame's draws and issues them sorted by
+ * program, then texture, then material, then front to back, so each piece of
+ * state is set about once a frame instead of once per object. State that is
+ * already current is not set again, and the number of changes actually made
+ * is counted.
+ *
+ * Each draw is sorted by a single long: the ranks of its program, texture
+ * and material, its depth, and its index in the queue. Ranks are handed out
+ * the first time something is seen in a frame and forgotten after it, and
+ * only affect the order; whether state has changed is decided by comparing
+ * the real objects.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class RenderQueue {
+
+	private static final int INDEX_BITS = 16;
+	private static final int DEPTH_BITS = 24;
+	private static final int MATERIAL_BITS = 8;
+	private static final int TEXTURE_BITS = 8;
+	// one less than the rest, so keys are never negative
+	private static final int PROGRAM_BITS = 7;
+
+	private static final int DEPTH_SHIFT = INDEX_BITS;
+	private static final int MATERIAL_SHIFT = DEPTH_SHIFT + DEPTH_BITS;
+	private static final int TEXTURE_SHIFT = MATERIAL_SHIFT + MATERIAL_BITS;
+	private static final int PROGRAM_SHIFT = TEXTURE_SHIFT + TEXTURE_BITS;
+
+	public static final int MAX_ITEMS = 1 << INDEX_BITS;
+
+	// layer for draws that do not sample a texture array
+	public static final int NO_LAYER = -1;
+
+	private float[] myViewProjection;
+	private Lights myLights;
+
+	private int count = 0;
+	private long[] keys = new long[64];
+	private RenderProgram[] programs = new RenderProgram[64];
+	private Texture[] textures = new Texture[64];
+	private int[] layers = new int[64];
+	private Material[] materials = new Material[64];
+	private int[] vertexArrays = new int[64];
+	private RenderItem[] items = new RenderItem[64];
+
+	private Map<Integer, Integer> programRanks =
+			new HashMap<Integer, Integer>();
+	private Map<Texture, Integer> textureRanks =
+			new IdentityHashMap<Texture, Integer>();
+	private Map<Material, Integer> materialRanks =
+			new IdentityHashMap<Material, Integer>();
+
+	private int stateChanges;
+	private int drawCount;
+
+	/**
+	 * Start collecting a frame
+	 *
+	 * @param viewProjection
+	 *            column major, handed to each program as it is used
+	 * @param lights
+	 */
+	public void begin(float[] viewProjection, Lights lights) {
+		myViewProjection = viewProjection;
+		myLights = lights;
+		count = 0;
+	}
+
+	/**
+	 * Add a draw to the frame
+	 *
+	 * @param program
+	 * @param texture
+	 *            bound to unit 0, or null
+	 * @param layer
+	 *            layer of the texture array, or NO_LAYER
+	 * @param material
+	 *            or null for programs without one
+	 * @param vertexArray
+	 *            the vertex array object to draw from
+	 * @param depth
+	 *            distance from the camera, nearer draws go first
+	 * @param item
+	 */
+	public void submit(RenderProgram program, Texture texture, int layer,
+			Material material, int vertexArray, double depth, RenderItem item) {
+		if (count == MAX_ITEMS)
+			throw new IllegalStateException("More than " + MAX_ITEMS
+					+ " draws in one frame");
+		if (count == keys.length)
+			grow();
+
+		long programRank = rank(programRanks, program.getProgram().getId(),
+				PROGRAM_BITS);
+		long textureRank = rank(textureRanks, texture, TEXTURE_BITS);
+		long materialRank = rank(materialRanks, material, MATERIAL_BITS);
+		// the bits of a positive float sort in the same order as its value
+		long depthBits = Float.floatToIntBits((float) Math.max(depth, 0))
+				>>> (31 - DEPTH_BITS);
+		keys[count] = programRank << PROGRAM_SHIFT
+				| textureRank << TEXTURE_SHIFT
+				| materialRank << MATERIAL_SHIFT
+				| depthBits << DEPTH_SHIFT | count;
+
+		programs[count] = program;
+		textures[count] = texture;
+		layers[count] = layer;
+		materials[count] = material;
+		vertexArrays[count] = vertexArray;
+		items[count] = item;
+		count++;
+	}
+
+	/**
+	 * Draw everything submitted since begin, in sorted order
+	 *
+	 * @param gl
+	 */
+	public void flush(GL2 gl) {
+		Arrays.sort(keys, 0, count);
+
+		// nothing is known about the state left by code outside the queue
+		ShaderProgram currentProgram = null;
+		Texture currentTexture = null;
+		int currentLayer = NO_LAYER;
+		Material currentMaterial = null;
+		int currentVertexArray = -1;
+		stateChanges = 0;
+
+		for (int i = 0; i < count; i++) {
+			int index = (int) (keys[i] & (MAX_ITEMS - 1));
+			RenderProgram program = programs[index];
+
+			if (program.getProgram() != currentProgram) {
+				program.use(gl, myViewProjection, myLights);
+				currentProgram = program.getProgram();
+				// layers and materials are uniforms, so belong to the program
+				currentLayer = NO_LAYER;
+				currentMaterial = null;
+				stateChanges++;
+			}
+			Texture texture = textures[index];
+			if (texture != null && texture != currentTexture) {
+				texture.bind(gl);
+				currentTexture = texture;
+				stateChanges++;
+			}
+			if (layers[index] != NO_LAYER && layers[index] != currentLayer) {
+				program.setLayer(gl, layers[index]);
+				currentLayer = layers[index];
+				stateChanges++;
+			}
+			Material material = materials[index];
+			if (material != null && material != currentMaterial) {
+				program.setMaterial(gl, material);
+				currentMaterial = material;
+				stateChanges++;
+			}
+			if (vertexArrays[index] != currentVertexArray) {
+				GLState.getInstance().bindVertexArray(gl, vertexArrays[index]);
+				currentVertexArray = vertexArrays[index];
+				stateChanges++;
+			}
+
+			items[index].draw(gl);
+		}
+
+		if (count > 0) {
+			GLState.getInstance().bindVertexArray(gl, 0);
+			GLState.getInstance().useProgram(gl, 0);
+		}
+		drawCount = count;
+
+		// let go of this frame's objects
+		Arrays.fill(programs, 0, count, null);
+		Arrays.fill(textures, 0, count, null);
+		Arrays.fill(materials, 0, count, null);
+		Arrays.fill(items, 0, count, null);
+		programRanks.clear();
+		textureRanks.clear();
+		materialRanks.clear();
+		count = 0;
+	}
+
+	/**
+	 * The number of program, texture, layer, material and vertex array
+	 * changes made by the last flush
+	 *
+	 * @return
+	 */
+	public int getStateChanges() {
+		return stateChanges;
+	}
+
+	/**
+	 * The number of draws issued by the last flush
+	 *
+	 * @return
+	 */
+	public int getDrawCount() {
+		return drawCount;
+	}
+
+	/**
+	 * The rank of a program, texture or material, handing out the next one
+	 * if it is new. Null always ranks first.
+	 */
+	private static <T> int rank(Map<T, Integer> ranks, T value, int bits) {
+		if (value == null)
+			return 0;
+		Integer rank = ranks.get(value);
+		if (rank == null) {
+			// past the limit things share the last rank, and only lose order
+			rank = Math.min(ranks.size() + 1, (1 << bits) - 1);
+			ranks.put(value, rank);
+		}
+		return rank;
+	}
+
+	private void grow() {
+		int size = keys.length * 2;
+		keys = Arrays.copyOf(keys, size);
+		programs = Arrays.copyOf(programs, size);
+		textures = Arrays.copyOf(textures, size);
+		layers = Arrays.copyOf(layers, size);
+		materials = Arrays.copyOf(materials, size);
+		vertexArrays = Arrays.copyOf(vertexArrays, size);
+		items = Arrays.copyOf(items, size);
+	}
+}
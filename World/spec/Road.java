@@ -1,29 +1,29 @@
 package World.spec;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import javax.media.opengl.GL2;
-
 /**
- * Road class, holds the info for the road and draws itself
+ * Road class, holds the info for the road and the mesh it is drawn with
  *
  * @author Fufu Hu
  */
 public class Road {
 
-	private List<Double> myPoints;
+	// x and y of every control point, one after the other
+	private double[] myPoints;
+	private int myPointCount;
 	private double myWidth;
-	private static Texture roadTexture;
+	private RoadMesh myMesh;
+	public static final String TEXTURE_FILE = "road.jpg";
 
 	/**
 	 * Create a new road starting at the specified point
 	 */
 	public Road(double width, double x0, double y0) {
 		myWidth = width;
-		myPoints = new ArrayList<Double>();
-		myPoints.add(x0);
-		myPoints.add(y0);
+		myMesh = new RoadMesh();
+		myPoints = new double[32];
+		myPoints[0] = x0;
+		myPoints[1] = y0;
+		myPointCount = 1;
 	}
 
 	/**
@@ -34,10 +34,10 @@ public class Road {
 	 */
 	public Road(double width, double[] spine) {
 		myWidth = width;
-		myPoints = new ArrayList<Double>();
-		for (int i = 0; i < spine.length; i++) {
-			myPoints.add(spine[i]);
-		}
+		myMesh = new RoadMesh();
+		myPoints = new double[Math.max(spine.length, 32)];
+		System.arraycopy(spine, 0, myPoints, 0, spine.length);
+		myPointCount = spine.length / 2;
 	}
 
 	/**
@@ -63,12 +63,21 @@ public class Road {
 	 */
 	public void addSegment(double x1, double y1, double x2, double y2,
 			double x3, double y3) {
-		myPoints.add(x1);
-		myPoints.add(y1);
-		myPoints.add(x2);
-		myPoints.add(y2);
-		myPoints.add(x3);
-		myPoints.add(y3);
+		if ((myPointCount + 3) * 2 > myPoints.length) {
+			double[] bigger = new double[Math.max(myPoints.length * 2,
+					(myPointCount + 3) * 2)];
+			System.arraycopy(myPoints, 0, bigger, 0, myPointCount * 2);
+			myPoints = bigger;
+		}
+		int i = myPointCount * 2;
+		myPoints[i++] = x1;
+		myPoints[i++] = y1;
+		myPoints[i++] = x2;
+		myPoints[i++] = y2;
+		myPoints[i++] = x3;
+		myPoints[i] = y3;
+		myPointCount += 3;
+		myMesh.invalidate();
 	}
 
 	/**
@@ -77,84 +86,46 @@ public class Road {
 	 * @return
 	 */
 	public int size() {
-		return myPoints.size() / 6;
+		return (myPointCount - 1) / 3;
 	}
 
-	public static void init(GL2 gl) {
-		String roadTextureFileName = "road.jpg";
-		String extension = "jpg";
-		roadTexture = new Texture(gl, roadTextureFileName, extension);
-
-	}
-
-	public void drawSelf(GL2 gl, double altitude1) {
-
-		gl.glEnable(GL2.GL_TEXTURE_2D);
-		gl.glBindTexture(GL2.GL_TEXTURE_2D, roadTexture.getTextureId());
-
-		double altitude = altitude1 + 0.02;
-		gl.glColor4d(0.0, 0.0, 0.0, 1);
-		int numberOfParts = 10;
-		double tIncrement = 1.0 / (numberOfParts + 1);
-		double t = 0;
-		gl.glBegin(GL2.GL_TRIANGLE_STRIP);
-		for (int segment = 0; segment < size(); segment++) {
-			for (int i = 0; i < numberOfParts; i++) {
-				double[] p1 = point(t);
-				double[] p2 = point(t + tIncrement);
-				double dx = p2[0] - p1[0];
-				double dy = p2[1] - p1[1];
-
-				double[] normal = { dy, -dx };
-				normal = MathUtil.normalizeVector(normal);
-				normal = MathUtil.multiplyVector(normal, myWidth / 2);
-				double x1 = p1[0] - normal[0];
-				double y1 = p1[1] - normal[1];
-				double x2 = p1[0] + normal[0];
-				double y2 = p1[1] + normal[1];
-				double x3 = p2[0] - normal[0];
-				double y3 = p2[1] - normal[1];
-				double x4 = p2[0] + normal[0];
-				double y4 = p2[1] + normal[1];
-
-				gl.glTexCoord2d(0, 0);
-				gl.glVertex3d(x2, altitude, y2);
-				gl.glTexCoord2d(0, 1);
-				gl.glVertex3d(x1, altitude, y1);
-				gl.glTexCoord2d(1, 0);
-				gl.glVertex3d(x4, altitude, y4);
-				gl.glTexCoord2d(1, 1);
-				gl.glVertex3d(x3, altitude, y3);
-
-				t = t + tIncrement;
-			}
-		}
-		gl.glEnd();
-		gl.glDisable(GL2.GL_TEXTURE_2D);
+	public RoadMesh getMesh() {
+		return myMesh;
 	}
 
 	// this vector just tangent of curve, still need to multiple by 1/2
 	public double[] findVector(double t) {
-		double[] vector = new double[2];
+		return findVector(t, new double[2]);
+	}
 
-		int i = (int) Math.floor(t);
+	/**
+	 * Get the tangent of the spine without allocating. The parameter t may
+	 * vary from 0 to size().
+	 * 
+	 * @param t
+	 * @param out
+	 *            receives the tangent's x and y
+	 * @return out
+	 */
+	public double[] findVector(double t, double[] out) {
+		int i = segment(t);
 		t = t - i;
 
 		i *= 6;
 
-		double x0 = myPoints.get(i++);
-		double y0 = myPoints.get(i++);
-		double x1 = myPoints.get(i++);
-		double y1 = myPoints.get(i++);
-		double x2 = myPoints.get(i++);
-		double y2 = myPoints.get(i++);
-		double x3 = myPoints.get(i++);
-		double y3 = myPoints.get(i++);
-		vector[0] = 3 * (1 - t) * (1 - t) * (x1 - x0) + 6 * (1 - t) * t
+		double x0 = myPoints[i++];
+		double y0 = myPoints[i++];
+		double x1 = myPoints[i++];
+		double y1 = myPoints[i++];
+		double x2 = myPoints[i++];
+		double y2 = myPoints[i++];
+		double x3 = myPoints[i++];
+		double y3 = myPoints[i];
+		out[0] = 3 * (1 - t) * (1 - t) * (x1 - x0) + 6 * (1 - t) * t
 				* (x2 - x1) + 3 * t * t * (x3 - x2);
-		vector[1] = 3 * (1 - t) * (1 - t) * (y1 - y0) + 6 * (1 - t) * t
+		out[1] = 3 * (1 - t) * (1 - t) * (y1 - y0) + 6 * (1 - t) * t
 				* (y2 - y1) + 3 * t * t * (y3 - y2);
-		return vector;
+		return out;
 	}
 
 	// return two points for both sides of road(x,z)
@@ -176,10 +147,21 @@ public class Road {
 	 * @return
 	 */
 	public double[] controlPoint(int i) {
-		double[] p = new double[2];
-		p[0] = myPoints.get(i * 2);
-		p[1] = myPoints.get(i * 2 + 1);
-		return p;
+		return controlPoint(i, new double[2]);
+	}
+
+	/**
+	 * Get the specified control point without allocating.
+	 * 
+	 * @param i
+	 * @param out
+	 *            receives the point's x and y
+	 * @return out
+	 */
+	public double[] controlPoint(int i, double[] out) {
+		out[0] = myPoints[i * 2];
+		out[1] = myPoints[i * 2 + 1];
+		return out;
 	}
 
 	/**
@@ -190,26 +172,47 @@ public class Road {
 	 * @return
 	 */
 	public double[] point(double t) {
-		int i = (int) Math.floor(t);
+		return point(t, new double[2]);
+	}
+
+	/**
+	 * Get a point on the spine without allocating.
+	 * 
+	 * @param t
+	 * @param out
+	 *            receives the point's x and y
+	 * @return out
+	 */
+	public double[] point(double t, double[] out) {
+		int i = segment(t);
 		t = t - i;
 
 		i *= 6;
 
-		double x0 = myPoints.get(i++);
-		double y0 = myPoints.get(i++);
-		double x1 = myPoints.get(i++);
-		double y1 = myPoints.get(i++);
-		double x2 = myPoints.get(i++);
-		double y2 = myPoints.get(i++);
-		double x3 = myPoints.get(i++);
-		double y3 = myPoints.get(i++);
+		double x0 = myPoints[i++];
+		double y0 = myPoints[i++];
+		double x1 = myPoints[i++];
+		double y1 = myPoints[i++];
+		double x2 = myPoints[i++];
+		double y2 = myPoints[i++];
+		double x3 = myPoints[i++];
+		double y3 = myPoints[i];
 
-		double[] p = new double[2];
+		out[0] = b(0, t) * x0 + b(1, t) * x1 + b(2, t) * x2 + b(3, t) * x3;
+		out[1] = b(0, t) * y0 + b(1, t) * y1 + b(2, t) * y2 + b(3, t) * y3;
 
-		p[0] = b(0, t) * x0 + b(1, t) * x1 + b(2, t) * x2 + b(3, t) * x3;
-		p[1] = b(0, t) * y0 + b(1, t) * y1 + b(2, t) * y2 + b(3, t) * y3;
+		return out;
+	}
 
-		return p;
+	/**
+	 * The segment a parameter falls on, so that t = size() is the end of the
+	 * last segment rather than past it
+	 * 
+	 * @param t
+	 * @return
+	 */
+	private int segment(double t) {
+		return Math.max(Math.min((int) Math.floor(t), size() - 1), 0);
 	}
 
 	/**
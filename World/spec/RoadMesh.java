@@ -0,0 +1,559 @@
+package World.spec;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * RoadMesh class, tessellates a road's Bezier spine once into a mesh draped
+ * over the terrain and keeps it in a VBO. Each segment is subdivided until it
+ * is flat to within a tolerance, and the texture runs along the road by arc
+ * length so it is not stretched where the control points bunch up. The strip
+ * is then cut along the edges of the terrain's triangles, so every piece lies
+ * flat on the terrain surface.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class RoadMesh implements RenderItem {
+
+	// floats per vertex: position (3), normal (3), texture coordinate (2)
+	public static final int VERTEX_SIZE = 8;
+	private static final int STRIDE = VERTEX_SIZE * Float.BYTES;
+	private static final int NORMAL_OFFSET = 3 * Float.BYTES;
+	private static final int TEXCOORD_OFFSET = 6 * Float.BYTES;
+
+	// deepest a segment is split, 2^10 pieces
+	private static final int MAX_DEPTH = 10;
+
+	// how far the road floats above the terrain
+	private static final double LIFT = 0.02;
+
+	// the terrain's cell edges and cell diagonals, as lines a * x + b * z = k
+	private static final int[][] CUT_LINES = { { 1, 0 }, { 0, 1 }, { 1, 1 } };
+
+	private double flatness = 0.01;
+
+	// spine samples: parameter t, x, z and distance along the road
+	private double[] samples = new double[64];
+	private int sampleCount;
+
+	// scratch points, so sampling the spine allocates nothing
+	private double[] tangent = new double[2];
+	private double[] p0 = new double[2];
+	private double[] p1 = new double[2];
+	private double[] p2 = new double[2];
+	private double[] p3 = new double[2];
+	// left x, z, u, v then right x, z, u, v of this sample and the last
+	private double[] edge = new double[8];
+	private double[] previousEdge = new double[8];
+
+	// scratch polygons for draping, so cutting the strip allocates nothing
+	// once they have grown: points of x, z, u, v, and each piece's first
+	// point and point count. Each cut reads one pool and writes the other.
+	private double[] points = new double[64 * 4];
+	private int[] pieces = new int[32 * 2];
+	private int pointCount;
+	private int pieceCount;
+	private double[] cutPoints = new double[64 * 4];
+	private int[] cutPieces = new int[32 * 2];
+	private int cutPointCount;
+	private int cutPieceCount;
+	private double[] altitudes = new double[8];
+
+	private float[] vertices;
+	private int vertexCount;
+	private FloatBuffer vertexData;
+	private int bufferIds[] = new int[1];
+	private int vertexArray[] = new int[1];
+	private boolean built = false;
+	private boolean uploaded = false;
+
+	public double getFlatness() {
+		return flatness;
+	}
+
+	/**
+	 * Set how far the tessellated spine may stray from the true curve
+	 *
+	 * @param tolerance
+	 */
+	public void setFlatness(double tolerance) {
+		flatness = tolerance;
+		invalidate();
+	}
+
+	public boolean isBuilt() {
+		return built;
+	}
+
+	/**
+	 * Mark the mesh as out of date, after the spine changes
+	 */
+	public void invalidate() {
+		built = false;
+		uploaded = false;
+	}
+
+	/**
+	 * Tessellate the road and drape it over the terrain. Does not need a GL
+	 * context, and different roads may be built on different threads.
+	 *
+	 * @param road
+	 * @param terrain
+	 */
+	public void build(Road road, Terrain terrain) {
+		sampleSpine(road);
+
+		vertices = new float[256];
+		vertexCount = 0;
+		double halfWidth = road.width() / 2;
+		for (int i = 0; i < sampleCount; i++) {
+			double t = samples[i * 4];
+			double x = samples[i * 4 + 1];
+			double z = samples[i * 4 + 2];
+			// the texture is square, so it repeats every road width
+			double v = samples[i * 4 + 3] / road.width();
+
+			road.findVector(t, tangent);
+			double dx = tangent[0];
+			double dz = tangent[1];
+			double length = Math.sqrt(dx * dx + dz * dz);
+			if (length < 1e-9) {
+				// control points on top of each other, use the neighbours
+				int prev = Math.max(i - 1, 0);
+				int next = Math.min(i + 1, sampleCount - 1);
+				dx = samples[next * 4 + 1] - samples[prev * 4 + 1];
+				dz = samples[next * 4 + 2] - samples[prev * 4 + 2];
+				length = Math.max(Math.sqrt(dx * dx + dz * dz), 1e-9);
+			}
+			double nx = dz / length * halfWidth;
+			double nz = -dx / length * halfWidth;
+
+			double[] swap = previousEdge;
+			previousEdge = edge;
+			edge = swap;
+			edge[0] = x + nx;
+			edge[1] = z + nz;
+			edge[2] = 0;
+			edge[3] = v;
+			edge[4] = x - nx;
+			edge[5] = z - nz;
+			edge[6] = 1;
+			edge[7] = v;
+			if (i > 0) {
+				drape(terrain, previousEdge, 0, previousEdge, 4, edge, 0);
+				drape(terrain, edge, 0, previousEdge, 4, edge, 4);
+			}
+		}
+
+		vertexData = Buffers.newDirectFloatBuffer(vertexCount * VERTEX_SIZE);
+		vertexData.put(vertices, 0, vertexCount * VERTEX_SIZE);
+		vertexData.flip();
+		vertices = null;
+
+		built = true;
+		uploaded = false;
+	}
+
+	/**
+	 * Cut a triangle of the road along every terrain edge that crosses it,
+	 * and add the pieces at the terrain's height
+	 *
+	 * @param terrain
+	 * @param a
+	 * @param ai
+	 *            index of the vertex in a
+	 * @param b
+	 * @param bi
+	 * @param c
+	 * @param ci
+	 */
+	private void drape(Terrain terrain, double[] a, int ai, double[] b,
+			int bi, double[] c, int ci) {
+		pointCount = 0;
+		pieceCount = 0;
+		points = addPoint(points, pointCount++, a, ai);
+		points = addPoint(points, pointCount++, b, bi);
+		points = addPoint(points, pointCount++, c, ci);
+		pieces = addPiece(pieces, pieceCount++, 0, 3);
+
+		for (int[] line : CUT_LINES) {
+			cutPointCount = 0;
+			cutPieceCount = 0;
+			for (int i = 0; i < pieceCount; i++) {
+				int start = pieces[i * 2];
+				int count = pieces[i * 2 + 1];
+				double min = Double.POSITIVE_INFINITY;
+				double max = Double.NEGATIVE_INFINITY;
+				for (int j = start; j < start + count; j++) {
+					double d = line[0] * points[j * 4] + line[1]
+							* points[j * 4 + 1];
+					min = Math.min(min, d);
+					max = Math.max(max, d);
+				}
+
+				// the part still to cut, copied across so every split
+				// reads and writes the same pool
+				int rest = cutPointCount;
+				for (int j = start; j < start + count; j++)
+					cutPoints = addPoint(cutPoints, cutPointCount++, points,
+							j * 4);
+				for (double k = Math.floor(min) + 1; k < max; k++) {
+					int above = split(rest, count, line, k);
+					count = cutPointCount - above;
+					rest = above;
+				}
+				if (count >= 3)
+					cutPieces = addPiece(cutPieces, cutPieceCount++, rest,
+							count);
+			}
+
+			double[] swapPoints = points;
+			points = cutPoints;
+			cutPoints = swapPoints;
+			int[] swapPieces = pieces;
+			pieces = cutPieces;
+			cutPieces = swapPieces;
+			pointCount = cutPointCount;
+			pieceCount = cutPieceCount;
+		}
+
+		for (int i = 0; i < pieceCount; i++) {
+			addPiece(terrain, pieces[i * 2], pieces[i * 2 + 1]);
+		}
+	}
+
+	/**
+	 * Split a convex polygon in the cut pool along the line a * x + b * z =
+	 * k. The part below the line is added as a piece if it has any area, and
+	 * the part above is left at the end of the pool.
+	 *
+	 * @param start
+	 *            the polygon's first point
+	 * @param count
+	 * @param line
+	 * @param k
+	 * @return where the part above the line starts
+	 */
+	private int split(int start, int count, int[] line, double k) {
+		int below = cutPointCount;
+		for (int i = 0; i < count; i++) {
+			int p = (start + i) * 4;
+			int q = (start + (i + 1) % count) * 4;
+			double dp = line[0] * cutPoints[p] + line[1] * cutPoints[p + 1] - k;
+			if (dp <= 0)
+				cutPoints = addPoint(cutPoints, cutPointCount++, cutPoints, p);
+			if (crosses(p, q, line, k))
+				cutPoints = addCrossing(cutPoints, cutPointCount++, p, q,
+						line, k);
+		}
+		int belowCount = cutPointCount - below;
+		if (belowCount >= 3)
+			cutPieces = addPiece(cutPieces, cutPieceCount++, below,
+					belowCount);
+
+		int above = cutPointCount;
+		for (int i = 0; i < count; i++) {
+			int p = (start + i) * 4;
+			int q = (start + (i + 1) % count) * 4;
+			double dp = line[0] * cutPoints[p] + line[1] * cutPoints[p + 1] - k;
+			if (dp >= 0)
+				cutPoints = addPoint(cutPoints, cutPointCount++, cutPoints, p);
+			if (crosses(p, q, line, k))
+				cutPoints = addCrossing(cutPoints, cutPointCount++, p, q,
+						line, k);
+		}
+		return above;
+	}
+
+	/**
+	 * Whether the edge between two points of the cut pool crosses the line
+	 * strictly
+	 */
+	private boolean crosses(int p, int q, int[] line, double k) {
+		double dp = line[0] * cutPoints[p] + line[1] * cutPoints[p + 1] - k;
+		double dq = line[0] * cutPoints[q] + line[1] * cutPoints[q + 1] - k;
+		return (dp < 0 && dq > 0) || (dp > 0 && dq < 0);
+	}
+
+	/**
+	 * Add the point where the edge between two points of the cut pool
+	 * crosses the line
+	 */
+	private double[] addCrossing(double[] pool, int index, int p, int q,
+			int[] line, double k) {
+		pool = grow(pool, (index + 1) * 4);
+		double dp = line[0] * pool[p] + line[1] * pool[p + 1] - k;
+		double dq = line[0] * pool[q] + line[1] * pool[q + 1] - k;
+		double s = dp / (dp - dq);
+		for (int j = 0; j < 4; j++) {
+			pool[index * 4 + j] = pool[p + j] + s * (pool[q + j] - pool[p + j]);
+		}
+		return pool;
+	}
+
+	/**
+	 * Copy a point of x, z, u, v into a pool, growing it if needed
+	 *
+	 * @return the pool
+	 */
+	private static double[] addPoint(double[] pool, int index, double[] from,
+			int offset) {
+		double[] grown = grow(pool, (index + 1) * 4);
+		// the point may come from the pool itself, which may have moved
+		System.arraycopy(from == pool ? grown : from, offset, grown,
+				index * 4, 4);
+		return grown;
+	}
+
+	private static int[] addPiece(int[] pieces, int index, int start,
+			int count) {
+		if (pieces.length < (index + 1) * 2)
+			pieces = Arrays.copyOf(pieces, pieces.length * 2);
+		pieces[index * 2] = start;
+		pieces[index * 2 + 1] = count;
+		return pieces;
+	}
+
+	private static double[] grow(double[] pool, int size) {
+		if (pool.length < size)
+			pool = Arrays.copyOf(pool, Math.max(pool.length * 2, size));
+		return pool;
+	}
+
+	/**
+	 * Add a piece of the pool lying inside one terrain triangle as a fan of
+	 * triangles
+	 *
+	 * @param terrain
+	 * @param start
+	 *            the piece's first point
+	 * @param count
+	 */
+	private void addPiece(Terrain terrain, int start, int count) {
+		altitudes = grow(altitudes, count);
+		double[] y = altitudes;
+		for (int i = 0; i < count; i++) {
+			int p = (start + i) * 4;
+			y[i] = terrain.surfaceAltitude(points[p], points[p + 1]) + LIFT;
+		}
+
+		// the piece is flat, so any two of its edges give the normal
+		int first = start * 4;
+		double ux = points[first + 4] - points[first];
+		double uy = y[1] - y[0];
+		double uz = points[first + 5] - points[first + 1];
+		double vx = points[first + 8] - points[first];
+		double vy = y[2] - y[0];
+		double vz = points[first + 9] - points[first + 1];
+		double nx = uy * vz - uz * vy;
+		double ny = uz * vx - ux * vz;
+		double nz = ux * vy - uy * vx;
+		if (ny < 0) {
+			nx = -nx;
+			ny = -ny;
+			nz = -nz;
+		}
+		double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (length < 1e-12) {
+			nx = 0;
+			ny = 1;
+			nz = 0;
+		} else {
+			nx /= length;
+			ny /= length;
+			nz /= length;
+		}
+
+		for (int i = 1; i < count - 1; i++) {
+			putVertex(first, y[0], nx, ny, nz);
+			putVertex(first + i * 4, y[i], nx, ny, nz);
+			putVertex(first + (i + 1) * 4, y[i + 1], nx, ny, nz);
+		}
+	}
+
+	/**
+	 * Adaptively sample every segment of the spine, recording the distance
+	 * along the road at each sample
+	 *
+	 * @param road
+	 */
+	private void sampleSpine(Road road) {
+		sampleCount = 0;
+		if (road.size() == 0)
+			return;
+
+		road.controlPoint(0, p0);
+		addSample(0, p0[0], p0[1], 0);
+		for (int segment = 0; segment < road.size(); segment++) {
+			road.controlPoint(segment * 3, p0);
+			road.controlPoint(segment * 3 + 1, p1);
+			road.controlPoint(segment * 3 + 2, p2);
+			road.controlPoint(segment * 3 + 3, p3);
+			subdivide(segment, segment + 1, p0[0], p0[1], p1[0], p1[1], p2[0],
+					p2[1], p3[0], p3[1], 0);
+		}
+	}
+
+	/**
+	 * Split the curve in half with de Casteljau's algorithm until it is flat,
+	 * then add its end point
+	 */
+	private void subdivide(double t0, double t1, double x0, double z0,
+			double x1, double z1, double x2, double z2, double x3, double z3,
+			int depth) {
+		if (depth >= MAX_DEPTH
+				|| isFlat(x0, z0, x1, z1, x2, z2, x3, z3)) {
+			int last = (sampleCount - 1) * 4;
+			double dx = x3 - samples[last + 1];
+			double dz = z3 - samples[last + 2];
+			addSample(t1, x3, z3,
+					samples[last + 3] + Math.sqrt(dx * dx + dz * dz));
+			return;
+		}
+
+		double x01 = (x0 + x1) / 2, z01 = (z0 + z1) / 2;
+		double x12 = (x1 + x2) / 2, z12 = (z1 + z2) / 2;
+		double x23 = (x2 + x3) / 2, z23 = (z2 + z3) / 2;
+		double xa = (x01 + x12) / 2, za = (z01 + z12) / 2;
+		double xb = (x12 + x23) / 2, zb = (z12 + z23) / 2;
+		double xm = (xa + xb) / 2, zm = (za + zb) / 2;
+
+		double tm = (t0 + t1) / 2;
+		subdivide(t0, tm, x0, z0, x01, z01, xa, za, xm, zm, depth + 1);
+		subdivide(tm, t1, xm, zm, xb, zb, x23, z23, x3, z3, depth + 1);
+	}
+
+	/**
+	 * A segment is flat when both inner control points are within the
+	 * tolerance of the chord
+	 */
+	private boolean isFlat(double x0, double z0, double x1, double z1,
+			double x2, double z2, double x3, double z3) {
+		double dx = x3 - x0;
+		double dz = z3 - z0;
+		double length = Math.sqrt(dx * dx + dz * dz);
+		if (length < 1e-9) {
+			double d1 = Math.hypot(x1 - x0, z1 - z0);
+			double d2 = Math.hypot(x2 - x0, z2 - z0);
+			return Math.max(d1, d2) <= flatness;
+		}
+		double d1 = Math.abs((x1 - x0) * dz - (z1 - z0) * dx) / length;
+		double d2 = Math.abs((x2 - x0) * dz - (z2 - z0) * dx) / length;
+		return Math.max(d1, d2) <= flatness;
+	}
+
+	private void addSample(double t, double x, double z, double distance) {
+		if ((sampleCount + 1) * 4 > samples.length) {
+			double[] bigger = new double[samples.length * 2];
+			System.arraycopy(samples, 0, bigger, 0, samples.length);
+			samples = bigger;
+		}
+		int i = sampleCount * 4;
+		samples[i] = t;
+		samples[i + 1] = x;
+		samples[i + 2] = z;
+		samples[i + 3] = distance;
+		sampleCount++;
+	}
+
+	/**
+	 * Add a vertex at a point of the draping pool
+	 */
+	private void putVertex(int p, double y, double nx, double ny,
+			double nz) {
+		if ((vertexCount + 1) * VERTEX_SIZE > vertices.length) {
+			float[] bigger = new float[vertices.length * 2];
+			System.arraycopy(vertices, 0, bigger, 0, vertices.length);
+			vertices = bigger;
+		}
+		int i = vertexCount * VERTEX_SIZE;
+		vertices[i] = (float) points[p];
+		vertices[i + 1] = (float) y;
+		vertices[i + 2] = (float) points[p + 1];
+		vertices[i + 3] = (float) nx;
+		vertices[i + 4] = (float) ny;
+		vertices[i + 5] = (float) nz;
+		vertices[i + 6] = (float) points[p + 2];
+		vertices[i + 7] = (float) points[p + 3];
+		vertexCount++;
+	}
+
+	/**
+	 * Upload the built mesh into a static VBO, with its attribute layout in
+	 * a vertex array
+	 *
+	 * @param gl
+	 */
+	public void upload(GL2 gl) {
+		if (bufferIds[0] == 0) {
+			gl.glGenBuffers(1, bufferIds, 0);
+			gl.glGenVertexArrays(1, vertexArray, 0);
+		}
+
+		GLState.getInstance().bindVertexArray(gl, vertexArray[0]);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, bufferIds[0]);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, vertexData.limit() * Float.BYTES,
+				vertexData, GL.GL_STATIC_DRAW);
+		gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_POS);
+		gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_NORMAL);
+		gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_TEX_COORD);
+		gl.glVertexAttribPointer(ShaderProgram.VERTEX_POS, 3, GL.GL_FLOAT,
+				false, STRIDE, 0);
+		gl.glVertexAttribPointer(ShaderProgram.VERTEX_NORMAL, 3, GL.GL_FLOAT,
+				false, STRIDE, NORMAL_OFFSET);
+		gl.glVertexAttribPointer(ShaderProgram.VERTEX_TEX_COORD, 2,
+				GL.GL_FLOAT, false, STRIDE, TEXCOORD_OFFSET);
+		GLState.getInstance().bindVertexArray(gl, 0);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, 0);
+
+		// the GPU has its own copy now
+		vertexData = null;
+		uploaded = true;
+	}
+
+	/**
+	 * Queue the mesh, uploading it first if it has been rebuilt
+	 *
+	 * @param gl
+	 * @param queue
+	 * @param program
+	 * @param texture
+	 * @param layer
+	 * @param material
+	 */
+	public void submit(GL2 gl, RenderQueue queue, RenderProgram program,
+			Texture texture, int layer, Material material) {
+		if (!uploaded)
+			upload(gl);
+		if (vertexCount == 0)
+			return;
+
+		queue.submit(program, texture, layer, material, vertexArray[0], 0,
+				this);
+	}
+
+	@Override
+	public void draw(GL2 gl) {
+		gl.glDrawArrays(GL.GL_TRIANGLES, 0, vertexCount);
+	}
+
+	/**
+	 * Delete the VBO and the vertex array
+	 *
+	 * @param gl
+	 */
+	public void release(GL2 gl) {
+		if (bufferIds[0] > 0) {
+			GLState.getInstance().deleteBuffers(gl, 1, bufferIds);
+			GLState.getInstance().deleteVertexArrays(gl, 1, vertexArray);
+			bufferIds[0] = 0;
+			vertexArray[0] = 0;
+		}
+		invalidate();
+	}
+}
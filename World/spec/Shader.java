@@ -6,6 +6,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
 
 import javax.media.opengl.GL2;
 import javax.media.opengl.GL2ES2;
@@ -31,12 +33,31 @@ public class Shader {
 
 	// read file into a string
 	public Shader(int type, File sourceFile) throws IOException {
+		this(type, readSource(sourceFile));
+	}
+
+	/**
+	 * A shader with the given source text
+	 * 
+	 * @param type
+	 * @param source
+	 */
+	public Shader(int type, String source) {
 		myType = type;
+		mySource = new String[] { source };
+	}
+
+	/**
+	 * Read a shader source file into a string
+	 * 
+	 * @param sourceFile
+	 * @return
+	 */
+	public static String readSource(File sourceFile) {
 		try {
 			BufferedReader reader = new BufferedReader(new InputStreamReader(
 					new FileInputStream(sourceFile)));
 			StringWriter writer = new StringWriter();
-			mySource = new String[1];
 			String line = reader.readLine();
 			while (line != null) {
 				writer.write(line);
@@ -44,7 +65,7 @@ public class Shader {
 				line = reader.readLine();
 			}
 			reader.close();
-			mySource[0] = writer.getBuffer().toString();
+			return writer.getBuffer().toString();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -87,8 +108,28 @@ public class Shader {
 	public static int initShaders(GL2 gl, String vs, String fs)
 			throws Exception {
 		Shader vertexShader = new Shader(GL2.GL_VERTEX_SHADER, new File(vs));
-		vertexShader.compile(gl);
 		Shader fragmentShader = new Shader(GL2.GL_FRAGMENT_SHADER, new File(fs));
+		return link(gl, vertexShader, fragmentShader,
+				Collections.<String, Integer> emptyMap());
+	}
+
+	/**
+	 * Compile a vertex and fragment shader and link them into a program. The
+	 * shader objects are deleted once linked, the program keeps them alive.
+	 * 
+	 * @param gl
+	 * @param vertexShader
+	 * @param fragmentShader
+	 * @param attributeLocations
+	 *            locations to bind attributes to before linking, names the
+	 *            shaders do not use are ignored
+	 * @return the program id
+	 * @throws Exception
+	 */
+	public static int link(GL2 gl, Shader vertexShader,
+			Shader fragmentShader, Map<String, Integer> attributeLocations)
+			throws Exception {
+		vertexShader.compile(gl);
 		fragmentShader.compile(gl);
 
 		// Each shaderProgram must have
@@ -96,8 +137,15 @@ public class Shader {
 		int shaderprogram = gl.glCreateProgram();
 		gl.glAttachShader(shaderprogram, vertexShader.getID());
 		gl.glAttachShader(shaderprogram, fragmentShader.getID());
+		for (Map.Entry<String, Integer> attribute : attributeLocations
+				.entrySet()) {
+			gl.glBindAttribLocation(shaderprogram, attribute.getValue(),
+					attribute.getKey());
+		}
 
 		gl.glLinkProgram(shaderprogram);
+		gl.glDeleteShader(vertexShader.getID());
+		gl.glDeleteShader(fragmentShader.getID());
 
 		int[] error = new int[2];
 		gl.glGetProgramiv(shaderprogram, GL2.GL_LINK_STATUS, error, 0);
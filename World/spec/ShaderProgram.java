@@ -0,0 +1,267 @@
+package World.spec;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.media.opengl.GL2;
+
+/**
+ * ShaderProgram class, a linked program shared through the ShaderRegistry.
+ * Every active attribute and uniform is looked up once, when the program is
+ * linked, so drawing never asks the driver for a location by name.
+ *
+ * Attributes with one of the standard names are bound to a fixed location
+ * before linking, so code that feeds them can use the constants below
+ * without asking the program at all.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class ShaderProgram {
+
+	public static final int VERTEX_POS = 0;
+	public static final int VERTEX_NORMAL = 1;
+	public static final int VERTEX_TEX_COORD = 2;
+	public static final int VERTEX_COL = 3;
+	public static final int VERTEX_CORNER = 4;
+	public static final int INSTANCE_POS = 5;
+
+	/**
+	 * The location every program binds each standard attribute name to
+	 */
+	public static final Map<String, Integer> ATTRIBUTE_LOCATIONS;
+	static {
+		Map<String, Integer> locations = new HashMap<String, Integer>();
+		locations.put("vertexPos", VERTEX_POS);
+		locations.put("vertexNormal", VERTEX_NORMAL);
+		locations.put("vertexTexCoord", VERTEX_TEX_COORD);
+		locations.put("vertexCol", VERTEX_COL);
+		locations.put("vertexCorner", VERTEX_CORNER);
+		locations.put("instancePos", INSTANCE_POS);
+		ATTRIBUTE_LOCATIONS = Collections.unmodifiableMap(locations);
+	}
+
+	private String myKey;
+	private int myId;
+	// guarded by the registry, which is only used on the GL thread
+	private int references = 0;
+
+	private Map<String, Integer> attribLocations =
+			new HashMap<String, Integer>();
+	private Map<String, Integer> uniformLocations =
+			new HashMap<String, Integer>();
+
+	/**
+	 * Wrap a linked program, looking up its active attributes and uniforms
+	 *
+	 * @param gl
+	 * @param key
+	 * @param id
+	 */
+	ShaderProgram(GL2 gl, String key, int id) {
+		myKey = key;
+		myId = id;
+		resolveAttributes(gl);
+		resolveUniforms(gl);
+	}
+
+	private void resolveAttributes(GL2 gl) {
+		int[] count = new int[1];
+		int[] maxLength = new int[1];
+		gl.glGetProgramiv(myId, GL2.GL_ACTIVE_ATTRIBUTES, count, 0);
+		gl.glGetProgramiv(myId, GL2.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH,
+				maxLength, 0);
+
+		int[] length = new int[1];
+		int[] size = new int[1];
+		int[] type = new int[1];
+		byte[] name = new byte[Math.max(maxLength[0], 1)];
+		for (int i = 0; i < count[0]; i++) {
+			gl.glGetActiveAttrib(myId, i, name.length, length, 0, size, 0,
+					type, 0, name, 0);
+			String attribute = new String(name, 0, length[0]);
+			attribLocations.put(attribute,
+					gl.glGetAttribLocation(myId, attribute));
+		}
+	}
+
+	private void resolveUniforms(GL2 gl) {
+		int[] count = new int[1];
+		int[] maxLength = new int[1];
+		gl.glGetProgramiv(myId, GL2.GL_ACTIVE_UNIFORMS, count, 0);
+		gl.glGetProgramiv(myId, GL2.GL_ACTIVE_UNIFORM_MAX_LENGTH, maxLength, 0);
+
+		int[] length = new int[1];
+		int[] size = new int[1];
+		int[] type = new int[1];
+		byte[] name = new byte[Math.max(maxLength[0], 1)];
+		for (int i = 0; i < count[0]; i++) {
+			gl.glGetActiveUniform(myId, i, name.length, length, 0, size, 0,
+					type, 0, name, 0);
+			String uniform = new String(name, 0, length[0]);
+			// built in uniforms are active but have no location
+			if (uniform.startsWith("gl_"))
+				continue;
+			int location = gl.glGetUniformLocation(myId, uniform);
+			uniformLocations.put(uniform, location);
+			// arrays are reported as name[0], but can be set by name alone
+			if (uniform.endsWith("[0]"))
+				uniformLocations.put(
+						uniform.substring(0, uniform.length() - 3), location);
+		}
+	}
+
+	public int getId() {
+		return myId;
+	}
+
+	String getKey() {
+		return myKey;
+	}
+
+	/**
+	 * The location of a vertex attribute, -1 if the program does not use it
+	 *
+	 * @param name
+	 * @return
+	 */
+	public int getAttribLocation(String name) {
+		Integer location = attribLocations.get(name);
+		return location == null ? -1 : location;
+	}
+
+	/**
+	 * The location of a uniform, -1 if the program does not use it. Look it
+	 * up once and keep it, then set it with one of the setUniform methods.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public int getUniformLocation(String name) {
+		Integer location = uniformLocations.get(name);
+		return location == null ? -1 : location;
+	}
+
+	/**
+	 * Set an int or sampler uniform of this program, which must be in use
+	 *
+	 * @param gl
+	 * @param location
+	 * @param value
+	 */
+	public void setUniform(GL2 gl, int location, int value) {
+		gl.glUniform1i(location, value);
+	}
+
+	/**
+	 * Set a float uniform of this program, which must be in use
+	 *
+	 * @param gl
+	 * @param location
+	 * @param value
+	 */
+	public void setUniform(GL2 gl, int location, float value) {
+		gl.glUniform1f(location, value);
+	}
+
+	/**
+	 * Set a vec2 uniform of this program, which must be in use
+	 *
+	 * @param gl
+	 * @param location
+	 * @param x
+	 * @param y
+	 */
+	public void setUniform(GL2 gl, int location, float x, float y) {
+		gl.glUniform2f(location, x, y);
+	}
+
+	/**
+	 * Set a vec3 uniform of this program, which must be in use
+	 *
+	 * @param gl
+	 * @param location
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	public void setUniform(GL2 gl, int location, float x, float y, float z) {
+		gl.glUniform3f(location, x, y, z);
+	}
+
+	/**
+	 * Set a vec3 uniform of this program from an array, which must be in use
+	 *
+	 * @param gl
+	 * @param location
+	 * @param value
+	 */
+	public void setUniform3(GL2 gl, int location, float[] value) {
+		gl.glUniform3fv(location, 1, value, 0);
+	}
+
+	/**
+	 * Set a vec4 uniform of this program from an array, which must be in use
+	 *
+	 * @param gl
+	 * @param location
+	 * @param value
+	 */
+	public void setUniform4(GL2 gl, int location, float[] value) {
+		gl.glUniform4fv(location, 1, value, 0);
+	}
+
+	/**
+	 * Set a mat4 uniform of this program from a column major array, which
+	 * must be in use
+	 *
+	 * @param gl
+	 * @param location
+	 * @param matrix
+	 */
+	public void setUniformMatrix4(GL2 gl, int location, float[] matrix) {
+		gl.glUniformMatrix4fv(location, 1, false, matrix, 0);
+	}
+
+	/**
+	 * Make an attribute of the bound vertex array advance once per instance
+	 * instead of once per vertex. GL2 does not declare the call, so it goes
+	 * through GL3ES3, which needs a GL 3.3 or ES 3 context.
+	 *
+	 * @param gl
+	 * @param index
+	 * @param divisor
+	 */
+	public static void setAttribDivisor(GL2 gl, int index, int divisor) {
+		if (!gl.isGL3ES3())
+			throw new IllegalStateException(
+					"Instanced arrays need a GL 3.3 context");
+		gl.getGL3ES3().glVertexAttribDivisor(index, divisor);
+	}
+
+	/**
+	 * Let go of the program, deleting it if this was its last user
+	 *
+	 * @param gl
+	 */
+	public void release(GL2 gl) {
+		ShaderRegistry.getInstance().release(gl, this);
+	}
+
+	void addReference() {
+		references++;
+	}
+
+	/**
+	 * @return the number of users left
+	 */
+	int removeReference() {
+		return --references;
+	}
+
+	void delete(GL2 gl) {
+		if (myId > 0)
+			GLState.getInstance().deleteProgram(gl, this);
+		myId = 0;
+	}
+}
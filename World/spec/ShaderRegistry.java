@@ -0,0 +1,116 @@
+package World.spec;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.media.opengl.GL2;
+
+/**
+ * ShaderRegistry class, compiles each combination of vertex shader, fragment
+ * shader and defines once and hands the same program to everything that asks
+ * for it. Source files are read from disk once however many programs use
+ * them, and may pull in shared code with #include "file". Standard
+ * attribute names are bound to the fixed locations in ShaderProgram. Each
+ * load must be matched by a release, and the program is deleted when the
+ * last user releases it.
+ *
+ * Programs only exist on the GL thread, so the registry is not thread safe.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class ShaderRegistry {
+
+	private static final ShaderRegistry INSTANCE = new ShaderRegistry();
+
+	private Map<String, ShaderProgram> programs =
+			new HashMap<String, ShaderProgram>();
+	private Map<String, String> sources = new HashMap<String, String>();
+
+	private ShaderRegistry() {
+	}
+
+	public static ShaderRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Get the program for a pair of shaders, compiling and linking it if
+	 * nobody is using it yet
+	 *
+	 * @param gl
+	 * @param vs
+	 *            vertex shader file
+	 * @param fs
+	 *            fragment shader file
+	 * @param defines
+	 *            macros defined at the top of both shaders, such as "FOG" or
+	 *            "LIGHTS 3"
+	 * @return
+	 * @throws Exception
+	 *             if the shaders do not compile or link
+	 */
+	public ShaderProgram load(GL2 gl, String vs, String fs, String... defines)
+			throws Exception {
+		String key = vs + "|" + fs + "|" + String.join(",", defines);
+		ShaderProgram program = programs.get(key);
+		if (program == null) {
+			String header = header(defines);
+			int id = Shader.link(gl, new Shader(GL2.GL_VERTEX_SHADER, header
+					+ source(vs)), new Shader(GL2.GL_FRAGMENT_SHADER, header
+					+ source(fs)), ShaderProgram.ATTRIBUTE_LOCATIONS);
+			program = new ShaderProgram(gl, key, id);
+			programs.put(key, program);
+		}
+		program.addReference();
+		return program;
+	}
+
+	/**
+	 * Let go of a program, deleting it if this was its last user
+	 *
+	 * @param gl
+	 * @param program
+	 */
+	public void release(GL2 gl, ShaderProgram program) {
+		if (programs.get(program.getKey()) != program
+				|| program.removeReference() > 0)
+			return;
+		programs.remove(program.getKey());
+		program.delete(gl);
+	}
+
+	/**
+	 * A shader's source, with each #include "file" line replaced by that
+	 * file, found next to the including one
+	 */
+	private String source(String fileName) {
+		String source = sources.get(fileName);
+		if (source == null) {
+			File file = new File(fileName);
+			StringBuilder text = new StringBuilder();
+			for (String line : Shader.readSource(file).split("\n")) {
+				String trimmed = line.trim();
+				if (trimmed.startsWith("#include")) {
+					String included = trimmed.substring(
+							trimmed.indexOf('"') + 1, trimmed.lastIndexOf('"'));
+					text.append(source(new File(file.getParentFile(),
+							included).getPath()));
+				} else {
+					text.append(line).append('\n');
+				}
+			}
+			source = text.toString();
+			sources.put(fileName, source);
+		}
+		return source;
+	}
+
+	private static String header(String[] defines) {
+		StringBuilder header = new StringBuilder();
+		for (String define : defines) {
+			header.append("#define ").append(define).append('\n');
+		}
+		return header.toString();
+	}
+}
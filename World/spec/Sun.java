@@ -1,7 +1,5 @@
 package World.spec;
 
-import javax.media.opengl.GL2;
-
 /**
  * Sun class, stores info about the Sun and Moon, and updates their position
  * 
@@ -49,11 +47,11 @@ public class Sun {
 	/**
 	 * Update the position of the light
 	 * 
-	 * @param gl
+	 * @param lights
 	 * @param day
 	 * @return
 	 */
-	public boolean update(GL2 gl, boolean day) {
+	public boolean update(Lights lights, boolean day) {
 		if (myDir[1] > 1) { // orb has reach below ground level, change to day
 							// or night
 			myDir[0] = -1.99f;
@@ -64,19 +62,8 @@ public class Sun {
 			rising = true;
 			day = !day;
 
-			if (day) {
-				if (gl.glIsEnabled(GL2.GL_LIGHT2))
-					gl.glDisable(GL2.GL_LIGHT2);
-
-				if (!gl.glIsEnabled(GL2.GL_LIGHT1))
-					gl.glEnable(GL2.GL_LIGHT1);
-			} else {
-				if (gl.glIsEnabled(GL2.GL_LIGHT1))
-					gl.glDisable(GL2.GL_LIGHT1);
-
-				if (!gl.glIsEnabled(GL2.GL_LIGHT2))
-					gl.glEnable(GL2.GL_LIGHT2);
-			}
+			lights.setEnabled(Lights.SUN, day);
+			lights.setEnabled(Lights.MOON, !day);
 		}
 
 		if (rising) { // orb is rising
@@ -91,13 +78,13 @@ public class Sun {
 		}
 
 		if (day) { // Sun
-			gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_POSITION, myDir, 0);
+			lights.setPosition(Lights.SUN, myDir);
 
 			myColor[1] -= 0.001f; // update sun color
-			gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_DIFFUSE, myColor, 0);
-			gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_SPECULAR, myColor, 0);
+			lights.setDiffuse(Lights.SUN, myColor);
+			lights.setSpecular(Lights.SUN, myColor);
 		} else { // Moon
-			gl.glLightfv(GL2.GL_LIGHT2, GL2.GL_POSITION, myDir, 0);
+			lights.setPosition(Lights.MOON, myDir);
 		}
 
 		return day;
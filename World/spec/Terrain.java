@@ -2,9 +2,8 @@ package World.spec;
 
 import java.awt.Dimension;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import javax.media.opengl.GL2;
 
@@ -18,13 +17,33 @@ public class Terrain {
 
 	private Camera myCamera;
 	private Dimension mySize;
-	private double[][] myAltitude;
+	private Heightfield myAltitude;
 	private List<Tree> myTrees;
 	private List<Road> myRoads;
 	private float[] mySunlight;
 	private List<Other> myOthers;
-	private Texture terrainTexture;
-	private Map<String, List<double[]>> terrainMesh;
+	private TextureArray textures;
+	private TerrainMesh terrainMesh;
+	private TreeRenderer treeRenderer;
+	private OtherBatch otherBatch;
+	private boolean roadsDirty = false;
+	private static final String TEXTURE_FILE = "grass.jpg";
+	// every image the world is drawn with, so one bind covers a frame
+	private static final String[] TEXTURE_FILES = { TEXTURE_FILE,
+			Road.TEXTURE_FILE, TreeRenderer.TRUNK_TEXTURE,
+			TreeRenderer.LEAVES_TEXTURE };
+	private static final int TEXTURE_SIZE = 1024;
+
+	private static final Material TERRAIN_MATERIAL = new Material(
+			new float[] { 0.1f, 1.0f, 0.8f, 1.0f }, new float[] { 0.1f, 1.0f,
+					0.8f, 1.0f }, new float[] { 1.0f, 1.0f, 1.0f, 1.0f }, 10f);
+	// the roads have always been drawn with the leaves' material, which the
+	// old fixed function trees left behind
+	private static final Material ROAD_MATERIAL = TreeRenderer.LEAVES_MATERIAL;
+
+	private Lights myLights;
+	private WorldShader shader = new WorldShader();
+	private RenderQueue renderQueue = new RenderQueue();
 
 	/**
 	 * Create a new terrain
@@ -35,14 +54,26 @@ public class Terrain {
 	 *            The number of vertices in the z-direction
 	 */
 	public Terrain(int width, int depth) {
+		this(new ArrayHeightfield(width, depth));
+	}
+
+	/**
+	 * Create a new terrain over an existing heightfield
+	 *
+	 * @param heightfield
+	 */
+	public Terrain(Heightfield heightfield) {
 		myCamera = new Camera(this);
-		mySize = new Dimension(width, depth);
-		myAltitude = new double[width][depth];
+		mySize = new Dimension(heightfield.getWidth(), heightfield.getDepth());
+		myAltitude = heightfield;
 		myTrees = new ArrayList<Tree>();
 		myRoads = new ArrayList<Road>();
 		mySunlight = new float[3];
+		myLights = new Lights();
 		myOthers = new ArrayList<Other>();
-		terrainMesh = new HashMap<String, List<double[]>>();
+		terrainMesh = new TerrainMesh(this);
+		treeRenderer = new TreeRenderer(myTrees);
+		otherBatch = new OtherBatch(myOthers);
 	}
 
 	public Terrain(Dimension size) {
@@ -65,14 +96,41 @@ public class Terrain {
 		return mySunlight;
 	}
 
+	/**
+	 * The lights the world is drawn with
+	 * 
+	 * @return
+	 */
+	public Lights getLights() {
+		return myLights;
+	}
+
 	public List<Other> others() {
 		return myOthers;
 	}
 
+	public Heightfield getHeightfield() {
+		return myAltitude;
+	}
+
 	public Camera getCamera() {
 		return myCamera;
 	}
 
+	public TreeRenderer getTreeRenderer() {
+		return treeRenderer;
+	}
+
+	/**
+	 * The queue the world is drawn through, which counts the state changes
+	 * each frame makes
+	 * 
+	 * @return
+	 */
+	public RenderQueue getRenderQueue() {
+		return renderQueue;
+	}
+
 	/**
 	 * Set the sunlight direction.
 	 * 
@@ -97,14 +155,16 @@ public class Terrain {
 	 */
 	public void setSize(int width, int height) {
 		mySize = new Dimension(width, height);
-		double[][] oldAlt = myAltitude;
-		myAltitude = new double[width][height];
+		Heightfield oldAlt = myAltitude;
+		myAltitude = oldAlt.create(width, height);
 
-		for (int i = 0; i < width && i < oldAlt.length; i++) {
-			for (int j = 0; j < height && j < oldAlt[i].length; j++) {
-				myAltitude[i][j] = oldAlt[i][j];
+		for (int j = 0; j < height && j < oldAlt.getDepth(); j++) {
+			for (int i = 0; i < width && i < oldAlt.getWidth(); i++) {
+				myAltitude.set(i, j, oldAlt.get(i, j));
 			}
 		}
+		terrainMesh.invalidate();
+		roadsDirty = true;
 	}
 
 	/**
@@ -115,7 +175,7 @@ public class Terrain {
 	 * @return
 	 */
 	public double getGridAltitude(int x, int z) {
-		return myAltitude[x][z];
+		return myAltitude.get(x, z);
 	}
 
 	/**
@@ -124,32 +184,162 @@ public class Terrain {
 	 * @param x
 	 * @param z
 	 * @return
+	 * @throws IllegalStateException
+	 *             if the altitudes are mapped read-only from a file
 	 */
 	public void setGridAltitude(int x, int z, double h) {
-		myAltitude[x][z] = h;
+		myAltitude.set(x, z, (float) h);
+		terrainMesh.invalidate();
+		roadsDirty = true;
 	}
 
 	/**
-	 * Get the altitude at an arbitrary point. Non-integer points should be
-	 * interpolated from neighbouring grid points
+	 * Get the altitude at an arbitrary point. Non-integer points are
+	 * interpolated bilinearly from the four neighbouring grid points, and
+	 * points off the terrain are clamped onto its edge.
 	 * 
 	 * @param x
 	 * @param z
 	 * @return
 	 */
 	public double altitude(double x, double z) {
-		double altitude = 0;
+		int maxX = mySize.width - 1;
+		int maxZ = mySize.height - 1;
+		x = x < 0 ? 0 : (x > maxX ? maxX : x);
+		z = z < 0 ? 0 : (z > maxZ ? maxZ : z);
+		int x0 = (int) x;
+		int z0 = (int) z;
+		int x1 = x0 < maxX ? x0 + 1 : maxX;
+		int z1 = z0 < maxZ ? z0 + 1 : maxZ;
+		double fx = x - x0;
+		double fz = z - z0;
+
+		double h00 = myAltitude.get(x0, z0);
+		double h10 = myAltitude.get(x1, z0);
+		double h01 = myAltitude.get(x0, z1);
+		double h11 = myAltitude.get(x1, z1);
+		double near = h00 + fx * (h10 - h00);
+		double far = h01 + fx * (h11 - h01);
+		return near + fz * (far - near);
+	}
+
+	/**
+	 * Get the altitudes at many points at once, bilinearly interpolated like
+	 * altitude(x, z)
+	 * 
+	 * @param xs
+	 * @param zs
+	 * @param out
+	 *            receives the altitude of each point
+	 * @param n
+	 *            number of points
+	 */
+	public void altitudes(double[] xs, double[] zs, double[] out, int n) {
+		int maxX = mySize.width - 1;
+		int maxZ = mySize.height - 1;
+		Heightfield altitude = myAltitude;
+		for (int i = 0; i < n; i++) {
+			double x = xs[i];
+			double z = zs[i];
+			x = x < 0 ? 0 : (x > maxX ? maxX : x);
+			z = z < 0 ? 0 : (z > maxZ ? maxZ : z);
+			int x0 = (int) x;
+			int z0 = (int) z;
+			int x1 = x0 < maxX ? x0 + 1 : maxX;
+			int z1 = z0 < maxZ ? z0 + 1 : maxZ;
+			double fx = x - x0;
+			double fz = z - z0;
+
+			double h00 = altitude.get(x0, z0);
+			double h10 = altitude.get(x1, z0);
+			double h01 = altitude.get(x0, z1);
+			double h11 = altitude.get(x1, z1);
+			double near = h00 + fx * (h10 - h00);
+			double far = h01 + fx * (h11 - h01);
+			out[i] = near + fz * (far - near);
+		}
+	}
+
+	/**
+	 * Get the altitude at an arbitrary point, interpolated with a Catmull-Rom
+	 * spline through the surrounding 4x4 grid points. Smoother than
+	 * altitude(x, z) but four times the work. Points off the terrain are
+	 * clamped onto its edge.
+	 * 
+	 * @param x
+	 * @param z
+	 * @return
+	 */
+	public double smoothAltitude(double x, double z) {
+		int maxX = mySize.width - 1;
+		int maxZ = mySize.height - 1;
+		x = x < 0 ? 0 : (x > maxX ? maxX : x);
+		z = z < 0 ? 0 : (z > maxZ ? maxZ : z);
+		int x1 = (int) x;
+		int z1 = (int) z;
+		double fx = x - x1;
+		double fz = z - z1;
+
+		int x0 = x1 > 0 ? x1 - 1 : 0;
+		int x2 = x1 < maxX ? x1 + 1 : maxX;
+		int x3 = x2 < maxX ? x2 + 1 : maxX;
+		int z0 = z1 > 0 ? z1 - 1 : 0;
+		int z2 = z1 < maxZ ? z1 + 1 : maxZ;
+		int z3 = z2 < maxZ ? z2 + 1 : maxZ;
+
+		Heightfield a = myAltitude;
+		double h0 = catmullRom(a.get(x0, z0), a.get(x0, z1), a.get(x0, z2),
+				a.get(x0, z3), fz);
+		double h1 = catmullRom(a.get(x1, z0), a.get(x1, z1), a.get(x1, z2),
+				a.get(x1, z3), fz);
+		double h2 = catmullRom(a.get(x2, z0), a.get(x2, z1), a.get(x2, z2),
+				a.get(x2, z3), fz);
+		double h3 = catmullRom(a.get(x3, z0), a.get(x3, z1), a.get(x3, z2),
+				a.get(x3, z3), fz);
+		return catmullRom(h0, h1, h2, h3, fx);
+	}
+
+	/**
+	 * Interpolate between p1 and p2 with a Catmull-Rom spline
+	 */
+	private static double catmullRom(double p0, double p1, double p2,
+			double p3, double t) {
+		return p1 + 0.5 * t * (p2 - p0 + t
+				* (2 * p0 - 5 * p1 + 4 * p2 - p3 + t
+						* (3 * (p1 - p2) + p3 - p0)));
+	}
 
-		if (x % 1 == 0 && z % 1 == 0) {
-			altitude = myAltitude[(int) x][(int) z];
+	/**
+	 * Get the altitude of the drawn terrain surface at an arbitrary point,
+	 * interpolating across the mesh triangle the point lies in. Points off
+	 * the terrain are clamped onto its edge.
+	 * 
+	 * @param x
+	 * @param z
+	 * @return
+	 */
+	public double surfaceAltitude(double x, double z) {
+		int width = mySize.width;
+		int depth = mySize.height;
+		x = Math.max(0, Math.min(x, width - 1));
+		z = Math.max(0, Math.min(z, depth - 1));
+		int x0 = Math.max(Math.min((int) x, width - 2), 0);
+		int z0 = Math.max(Math.min((int) z, depth - 2), 0);
+		int x1 = Math.min(x0 + 1, width - 1);
+		int z1 = Math.min(z0 + 1, depth - 1);
+		double fx = x - x0;
+		double fz = z - z0;
+
+		// cells are split along the diagonal from (x1, z0) to (x0, z1)
+		if (fx + fz <= 1) {
+			double h00 = myAltitude.get(x0, z0);
+			return h00 + fx * (myAltitude.get(x1, z0) - h00) + fz
+					* (myAltitude.get(x0, z1) - h00);
 		} else {
-			int x0 = (int) Math.floor(x);
-			double y0 = myAltitude[x0][(int) Math.floor(z)];
-			int x1 = (int) Math.ceil(x);
-			double y1 = myAltitude[x0][(int) Math.ceil(z)];
-			altitude = y0 + (y1 - y0) * ((x - x0) / (x1 - x0));
+			double h11 = myAltitude.get(x1, z1);
+			return h11 + (1 - fx) * (myAltitude.get(x0, z1) - h11) + (1 - fz)
+					* (myAltitude.get(x1, z0) - h11);
 		}
-		return altitude;
 	}
 
 	/**
@@ -163,6 +353,24 @@ public class Terrain {
 		double y = altitude(x, z);
 		Tree tree = new Tree(x, y, z);
 		myTrees.add(tree);
+		treeRenderer.invalidate();
+	}
+
+	/**
+	 * Add many trees at once, working out their heights in one batch
+	 * 
+	 * @param xs
+	 * @param zs
+	 * @param n
+	 *            number of trees
+	 */
+	public void addTrees(double[] xs, double[] zs, int n) {
+		double[] ys = new double[n];
+		altitudes(xs, zs, ys, n);
+		for (int i = 0; i < n; i++) {
+			myTrees.add(new Tree(xs[i], ys[i], zs[i]));
+		}
+		treeRenderer.invalidate();
 	}
 
 	/**
@@ -185,6 +393,38 @@ public class Terrain {
 	public void addOther(double x, double z) {
 		Other other = new Other(x, altitude(x, z), z);
 		myOthers.add(other);
+		otherBatch.invalidate();
+	}
+
+	/**
+	 * Drape every road over the terrain, building the road meshes in
+	 * parallel. Called once the level is loaded, so drawing the roads costs
+	 * nothing extra per frame.
+	 */
+	public void buildRoadMeshes() {
+		myRoads.parallelStream().forEach(road -> road.getMesh().build(road, this));
+		roadsDirty = false;
+	}
+
+	/**
+	 * Build the road, tree and other meshes at the same time, on worker
+	 * threads, so that init only has to upload them. The terrain mesh is
+	 * built chunk by chunk as it comes into view.
+	 */
+	public void buildMeshes() {
+		CompletableFuture.allOf(
+				CompletableFuture.runAsync(this::buildRoadMeshes),
+				CompletableFuture.runAsync(treeRenderer::build),
+				CompletableFuture.runAsync(otherBatch::build)).join();
+	}
+
+	/**
+	 * Start decoding every texture the terrain draws with on worker threads.
+	 * Call this before loading a level so the images decode while it is
+	 * read.
+	 */
+	public static void preloadTextures() {
+		TextureArray.preload(TEXTURE_FILES, TEXTURE_SIZE);
 	}
 
 	/**
@@ -193,172 +433,102 @@ public class Terrain {
 	 * @param gl
 	 */
 	public void init(GL2 gl) {
-		String textureFileName = "grass.jpg";
-		String extension = "jpg";
-		terrainTexture = new Texture(gl, textureFileName, extension);
-		Tree.init(gl);
-		Road.init(gl);
-		gl.glTexEnvf(GL2.GL_TEXTURE_ENV, GL2.GL_TEXTURE_ENV_MODE,
-				GL2.GL_MODULATE);
-		gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_S,
-				GL2.GL_REPEAT);
-		gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_T,
-				GL2.GL_REPEAT);
-
-		for (Other o : myOthers)
-			o.init(gl);
+		// terrain texture coordinates are in grid units, so it must repeat,
+		// which is the default wrap mode
+		textures = TextureArray.load(TEXTURE_FILES, TEXTURE_SIZE);
+		terrainMesh.upload(gl);
+		treeRenderer.init(gl, textures);
+		shader.init(gl);
+		otherBatch.init(gl);
+		myCamera.init(gl);
+	}
+
+	/**
+	 * Let go of the GL resources held by the terrain and everything on it
+	 * 
+	 * @param gl
+	 */
+	public void release(GL2 gl) {
+		terrainMesh.release(gl);
+		treeRenderer.release(gl);
+		for (Road road : myRoads) {
+			road.getMesh().release(gl);
+		}
+		otherBatch.release(gl);
+		myCamera.release(gl);
+		shader.release(gl);
+		if (textures != null) {
+			textures.release(gl);
+			textures = null;
+		}
 	}
 
 	/**
-	 * Draw each piece of the world
+	 * Draw each piece of the world. Every piece is queued first, and the
+	 * queue then draws them in the order that changes the least state.
 	 * 
 	 * @param gl
 	 */
 	public void drawWorld(GL2 gl) {
-		myCamera.setView(gl);
+		myCamera.setView(myLights);
+		renderQueue.begin(myCamera.getViewProjection(), myLights);
 
-		gl.glMatrixMode(GL2.GL_MODELVIEW);
-		gl.glLoadIdentity();
+		myCamera.submitAvatar(renderQueue);
+		submitTerrain(gl);
+		submitTrees(gl);
+		submitRoads(gl);
+		submitOthers(gl);
 
-		drawTerrain(gl);
-		drawTrees(gl);
-		drawRoads(gl);
-		drawOthers(gl);
+		renderQueue.flush(gl);
 	}
 
 	/**
-	 * Draws the terrain
+	 * Queues the terrain
 	 * 
 	 * @param gl
 	 */
-	private void drawTerrain(GL2 gl) {
-
-		// Material properties for terrain
-		float[] diffuseCoeff = { 0.1f, 1.0f, 0.8f, 1.0f };
-		float[] specCoeff = { 1.0f, 1.0f, 1.0f, 1.0f };
-		float[] ambientCoeff = { 0.1f, 1.0f, 0.8f, 1.0f };
-		float phong = 10f;
-
-		gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_DIFFUSE, diffuseCoeff, 0);
-		gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_SPECULAR, specCoeff, 0);
-		gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_AMBIENT, ambientCoeff, 0);
-		gl.glMaterialf(GL2.GL_FRONT, GL2.GL_SHININESS, phong);
-
-		gl.glEnable(GL2.GL_TEXTURE_2D);
-		gl.glBindTexture(GL2.GL_TEXTURE_2D, terrainTexture.getTextureId());
-
-		// mesh arrays
-		List<double[]> normals = new ArrayList<double[]>(); // one array for
-		// each normal
-		List<double[]> vertices = new ArrayList<double[]>(); // one array for
-		// each vertex
-		List<double[]> faces = new ArrayList<double[]>(); // one array for each
-															// face, 4 numbers,
-															// first number is
-															// face normal
-															// index, next 3 are
-															// vertices
-		int normalsCounter = 0;
-		int vertexCounter = 0;
-
-		// draw the terrain and fill mesh arrays
-		gl.glPolygonMode(GL2.GL_FRONT_AND_BACK, GL2.GL_FILL);
-		gl.glBegin(GL2.GL_TRIANGLES);
-		{
-			for (int row = 0; row < myAltitude.length - 1; row++) {
-				for (int col = 0; col < myAltitude[row].length - 1; col++) {
-					double[] normal = MathUtil
-							.calculateFaceNormal(
-									new double[] { row, altitude(row, col), col },
-									new double[] { row, altitude(row, col + 1),
-											col + 1 });
-					gl.glNormal3d(normal[0], normal[1], normal[2]);
-					normals.add(normal);
-
-					gl.glTexCoord2d(0, 0);
-					gl.glVertex3d(row, altitude(row, col), col);
-					vertices.add(new double[] { row, altitude(row, col), col });
-					gl.glTexCoord2d(0, 1);
-					gl.glVertex3d(row, altitude(row, col + 1), col + 1);
-					vertices.add(new double[] { row, altitude(row, col + 1),
-							col + 1 });
-					gl.glTexCoord2d(1, 1);
-					gl.glVertex3d(row + 1, altitude(row + 1, col), col);
-					vertices.add(new double[] { row + 1,
-							altitude(row + 1, col), col });
-
-					faces.add(new double[] { normalsCounter, vertexCounter,
-							vertexCounter + 1, vertexCounter + 2 });
-					normalsCounter++;
-					vertexCounter += 3;
-
-					double[] normal2 = MathUtil
-							.calculateFaceNormal(
-									new double[] { row, altitude(row, col), col },
-									new double[] { row, altitude(row, col + 1),
-											col + 1 });
-					gl.glNormal3d(normal2[0], normal2[1], normal2[2]);
-					normals.add(normal2);
-
-					gl.glTexCoord2d(0, 0);
-					gl.glVertex3d(row + 1, altitude(row + 1, col), col);
-					vertices.add(new double[] { row + 1,
-							altitude(row + 1, col), col });
-					gl.glTexCoord2d(0, 1);
-					gl.glVertex3d(row, altitude(row, col + 1), col + 1);
-					vertices.add(new double[] { row, altitude(row, col + 1),
-							col + 1 });
-					gl.glTexCoord2d(1, 1);
-					gl.glVertex3d(row + 1, altitude(row + 1, col + 1), col + 1);
-					vertices.add(new double[] { row + 1,
-							altitude(row + 1, col + 1), col + 1 });
-
-					faces.add(new double[] { normalsCounter, vertexCounter,
-							vertexCounter + 1, vertexCounter + 2 });
-					normalsCounter++;
-					vertexCounter += 3;
-				}
-			}
-
-		}
-		gl.glEnd();
-
-		terrainMesh.put("Vertices", vertices);
-		terrainMesh.put("Normals", normals);
-		terrainMesh.put("Faces", faces);
-		gl.glDisable(GL2.GL_TEXTURE_2D);
+	private void submitTerrain(GL2 gl) {
+		terrainMesh.submit(gl, renderQueue, shader, textures,
+				textures.getLayer(TEXTURE_FILE), TERRAIN_MATERIAL,
+				myCamera.getFrustum(), myCamera.getPosition());
 	}
 
 	/**
-	 * Tells each road to draw itself
+	 * Queues each road, draping it over the terrain again only if its spine
+	 * has changed since it was built
 	 * 
 	 * @param gl
 	 */
-	private void drawRoads(GL2 gl) {
+	private void submitRoads(GL2 gl) {
+		if (roadsDirty)
+			buildRoadMeshes();
+
+		int layer = textures.getLayer(Road.TEXTURE_FILE);
 		for (Road road : myRoads) {
-			road.drawSelf(gl, altitude(road.point(0)[0], road.point(0)[1]));
+			RoadMesh mesh = road.getMesh();
+			if (!mesh.isBuilt())
+				mesh.build(road, this);
+			mesh.submit(gl, renderQueue, shader, textures, layer,
+					ROAD_MATERIAL);
 		}
 	}
 
 	/**
-	 * Tells each tree to draw itself
+	 * Queues all the trees
 	 * 
 	 * @param gl
 	 */
-	private void drawTrees(GL2 gl) {
-		for (Tree tree : myTrees) {
-			tree.drawSelf(gl);
-		}
+	private void submitTrees(GL2 gl) {
+		treeRenderer.submit(gl, renderQueue, myCamera.getPosition(),
+				myCamera.getRight());
 	}
 
 	/**
-	 * Tells each other to draw itself
+	 * Queues all the others
 	 * 
 	 * @param gl
 	 */
-	private void drawOthers(GL2 gl) {
-		for (Other o : myOthers) {
-			o.drawSelf(gl);
-		}
+	private void submitOthers(GL2 gl) {
+		otherBatch.submit(gl, renderQueue);
 	}
 }
@@ -0,0 +1,90 @@
+package World.spec;
+
+/**
+ * TerrainChunk class, a square block of terrain cells with a cached bounding
+ * box and its current level of detail
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class TerrainChunk {
+
+	private int myX;
+	private int myZ;
+	private int myLevel;
+	private double[] myMin = new double[3];
+	private double[] myMax = new double[3];
+
+	/**
+	 * Create a chunk
+	 *
+	 * @param x
+	 *            grid x of the chunk's first vertex
+	 * @param z
+	 *            grid z of the chunk's first vertex
+	 */
+	public TerrainChunk(int x, int z) {
+		myX = x;
+		myZ = z;
+	}
+
+	public int getX() {
+		return myX;
+	}
+
+	public int getZ() {
+		return myZ;
+	}
+
+	/**
+	 * The level of detail the chunk is drawn at, 0 is full detail and each
+	 * level above that skips every second vertex of the one below
+	 * 
+	 * @return
+	 */
+	public int getLevel() {
+		return myLevel;
+	}
+
+	public void setLevel(int level) {
+		myLevel = level;
+	}
+
+	/**
+	 * Distance from a point to the nearest point of the chunk's bounding box
+	 * 
+	 * @param p
+	 * @return
+	 */
+	public double distanceTo(double[] p) {
+		double distance = 0;
+		for (int i = 0; i < 3; i++) {
+			double d = Math.max(Math.max(myMin[i] - p[i], p[i] - myMax[i]), 0);
+			distance += d * d;
+		}
+		return Math.sqrt(distance);
+	}
+
+	/**
+	 * Set the bounding box of the chunk
+	 */
+	public void setBounds(double minX, double minY, double minZ, double maxX,
+			double maxY, double maxZ) {
+		myMin[0] = minX;
+		myMin[1] = minY;
+		myMin[2] = minZ;
+		myMax[0] = maxX;
+		myMax[1] = maxY;
+		myMax[2] = maxZ;
+	}
+
+	/**
+	 * Test the chunk's bounding box against a view frustum
+	 *
+	 * @param frustum
+	 * @return
+	 */
+	public boolean isVisible(Frustum frustum) {
+		return frustum.intersectsBox(myMin[0], myMin[1], myMin[2], myMax[0],
+				myMax[1], myMax[2]);
+	}
+}
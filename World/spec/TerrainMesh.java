@@ -0,0 +1,600 @@
+package World.spec;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * TerrainMesh class, draws the terrain heightfield chunk by chunk. The
+ * heightfield is split into square chunks that share one index buffer, so
+ * chunks outside the camera's view frustum can be skipped. Chunks further
+ * from the camera are drawn from coarser index sets (geomipmapping), with
+ * their edges stitched to coarser neighbours so no cracks open between
+ * levels.
+ *
+ * A chunk's vertices are only built, from the heightfield, the first time it
+ * comes into view, and go into a static VBO and vertex array of the chunk's
+ * own. A few chunks are built each frame, nearest first, and chunks that
+ * have been out of view longest are dropped again once too many are held,
+ * so a large mapped heightfield is only read where the camera goes. Until a
+ * chunk is built its bounding box spans every height.
+ *
+ * Each visible chunk goes to the render queue as its own draw, so chunks are
+ * drawn front to back.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class TerrainMesh {
+
+	// floats per vertex: position (3), normal (3), texture coordinate (2)
+	public static final int VERTEX_SIZE = 8;
+	private static final int STRIDE = VERTEX_SIZE * Float.BYTES;
+	private static final int NORMAL_OFFSET = 3 * Float.BYTES;
+	private static final int TEXCOORD_OFFSET = 6 * Float.BYTES;
+
+	// cells along each side of a chunk
+	public static final int CHUNK_SIZE = 32;
+	private static final int CHUNK_VERTICES = CHUNK_SIZE + 1;
+	private static final int CHUNK_FLOATS = CHUNK_VERTICES * CHUNK_VERTICES
+			* VERTEX_SIZE;
+
+	// most chunks a terrain can have, about 32768 grid points square
+	public static final int MAX_CHUNKS = 1 << 20;
+	// chunks built and uploaded per frame
+	private static final int BUILDS_PER_FRAME = 64;
+	// chunks kept on the GPU before those out of view are dropped, about
+	// 140MB of vertices
+	private static final int MAX_RESIDENT_CHUNKS = 4096;
+
+	// strides 1, 2, 4 ... CHUNK_SIZE
+	public static final int LEVELS = Integer.numberOfTrailingZeros(CHUNK_SIZE) + 1;
+
+	// edges that border a coarser chunk
+	private static final int NORTH = 1;
+	private static final int SOUTH = 2;
+	private static final int WEST = 4;
+	private static final int EAST = 8;
+
+	private Terrain myTerrain;
+	private TerrainChunk[] myChunks = new TerrainChunk[0];
+	// draws each chunk, handed to the render queue
+	private RenderItem[] chunkItems = new RenderItem[0];
+	private int chunksX;
+	private int chunksZ;
+	private ShortBuffer indexData;
+	private int indexBuffer[] = new int[1];
+	// one per chunk, 0 until the chunk is built
+	private int vertexBuffers[] = new int[0];
+	private int vertexArrays[] = new int[0];
+	// the last frame each chunk was in view
+	private int lastVisible[] = new int[0];
+	private int residentChunks;
+	private int frame;
+	private int releaseIds[] = new int[1];
+	// the chunks waiting to be built this frame, by distance then index
+	private long pending[] = new long[0];
+	// vertices of the chunks being built
+	private FloatBuffer vertexData;
+	private int visibleChunks;
+	private int visibleTriangles;
+
+	// per level and edge mask, where the index set starts and its length
+	private int[][] indexOffsets = new int[LEVELS][16];
+	private int[][] indexCounts = new int[LEVELS][16];
+
+	// chunks closer than this are drawn at full detail, and the distance
+	// doubles for each level after that
+	private double lodDistance = CHUNK_SIZE;
+
+	private boolean built = false;
+
+	public TerrainMesh(Terrain terrain) {
+		myTerrain = terrain;
+	}
+
+	public TerrainChunk[] getChunks() {
+		return myChunks;
+	}
+
+	/**
+	 * The number of chunks that passed the frustum test in the last draw
+	 *
+	 * @return
+	 */
+	public int getVisibleChunkCount() {
+		return visibleChunks;
+	}
+
+	/**
+	 * The number of triangles drawn in the last draw, counting the
+	 * degenerate ones on the edge of the terrain
+	 *
+	 * @return
+	 */
+	public int getVisibleTriangleCount() {
+		return visibleTriangles;
+	}
+
+	public double getLodDistance() {
+		return lodDistance;
+	}
+
+	/**
+	 * Set the distance at which chunks start to lose detail
+	 *
+	 * @param distance
+	 */
+	public void setLodDistance(double distance) {
+		lodDistance = distance;
+	}
+
+	/**
+	 * Mark the mesh as out of date, so its chunks are laid out again and
+	 * rebuilt from the heightfield as they come into view
+	 */
+	public void invalidate() {
+		built = false;
+	}
+
+	/**
+	 * Lay out the chunks over the terrain and build the shared index data.
+	 * Reads no altitudes and does not need a GL context.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the terrain needs more than {@link #MAX_CHUNKS} chunks
+	 */
+	public void build() {
+		int width = myTerrain.size().width;
+		int depth = myTerrain.size().height;
+		chunksX = Math.max((width - 2) / CHUNK_SIZE + 1, 0);
+		chunksZ = Math.max((depth - 2) / CHUNK_SIZE + 1, 0);
+		if (width < 2 || depth < 2) {
+			chunksX = 0;
+			chunksZ = 0;
+		}
+		long chunks = (long) chunksX * chunksZ;
+		if (chunks > MAX_CHUNKS)
+			throw new IllegalArgumentException("A terrain of " + width + " x "
+					+ depth + " needs " + chunks + " chunks, more than "
+					+ MAX_CHUNKS);
+
+		myChunks = new TerrainChunk[(int) chunks];
+		chunkItems = new RenderItem[myChunks.length];
+		for (int c = 0; c < myChunks.length; c++) {
+			int index = c;
+			myChunks[c] = new TerrainChunk(c % chunksX * CHUNK_SIZE, c
+					/ chunksX * CHUNK_SIZE);
+			myChunks[c].setBounds(myChunks[c].getX(), -Float.MAX_VALUE,
+					myChunks[c].getZ(), Math.min(myChunks[c].getX()
+							+ CHUNK_SIZE, width - 1), Float.MAX_VALUE, Math
+							.min(myChunks[c].getZ() + CHUNK_SIZE, depth - 1));
+			chunkItems[c] = gl -> drawChunk(gl, index);
+		}
+		vertexBuffers = new int[myChunks.length];
+		vertexArrays = new int[myChunks.length];
+		lastVisible = new int[myChunks.length];
+		residentChunks = 0;
+
+		if (indexData == null)
+			buildIndices();
+
+		built = true;
+	}
+
+	/**
+	 * Build an index set for every level of detail and every combination of
+	 * coarser neighbours. Every chunk has the same vertex layout so they all
+	 * share these indices.
+	 */
+	private void buildIndices() {
+		int total = 0;
+		for (int level = 0; level < LEVELS; level++) {
+			int cells = CHUNK_SIZE >> level;
+			total += cells * cells * 6 * 16;
+		}
+		short[] indices = new short[total];
+
+		int count = 0;
+		for (int level = 0; level < LEVELS; level++) {
+			for (int mask = 0; mask < 16; mask++) {
+				indexOffsets[level][mask] = count;
+				count = buildIndices(indices, count, level, mask);
+				indexCounts[level][mask] = count - indexOffsets[level][mask];
+			}
+		}
+
+		indexData = Buffers.newDirectShortBuffer(count);
+		indexData.put(indices, 0, count);
+		indexData.flip();
+	}
+
+	/**
+	 * Build the indices for one level of detail. Two triangles per cell,
+	 * split along the same diagonal as the old immediate mode terrain. Edge
+	 * vertices on a side that borders a coarser chunk are snapped back onto
+	 * that chunk's vertices, so the shared edge matches exactly; the
+	 * triangles that collapse are left out.
+	 *
+	 * @param indices
+	 * @param count
+	 *            where to start writing
+	 * @param level
+	 * @param mask
+	 *            the edges bordering a chunk one level coarser
+	 * @return the new count
+	 */
+	private int buildIndices(short[] indices, int count, int level, int mask) {
+		int step = 1 << level;
+		for (int z = 0; z < CHUNK_SIZE; z += step) {
+			for (int x = 0; x < CHUNK_SIZE; x += step) {
+				short v00 = edgeVertex(x, z, step, mask);
+				short v10 = edgeVertex(x + step, z, step, mask);
+				short v01 = edgeVertex(x, z + step, step, mask);
+				short v11 = edgeVertex(x + step, z + step, step, mask);
+
+				count = addTriangle(indices, count, v00, v01, v10);
+				count = addTriangle(indices, count, v10, v01, v11);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The index of a chunk vertex, snapped along any coarser edge it is on.
+	 * Vertices on the north and west edges snap back and those on the south
+	 * and east edges snap forward, so that the corner cells still fold up
+	 * cleanly with the cell diagonal we use.
+	 */
+	private short edgeVertex(int x, int z, int step, int mask) {
+		int coarse = step * 2;
+		if (z == 0 && (mask & NORTH) != 0) {
+			x -= x % coarse;
+		} else if (z == CHUNK_SIZE && (mask & SOUTH) != 0) {
+			x += (coarse - x % coarse) % coarse;
+		}
+		if (x == 0 && (mask & WEST) != 0) {
+			z -= z % coarse;
+		} else if (x == CHUNK_SIZE && (mask & EAST) != 0) {
+			z += (coarse - z % coarse) % coarse;
+		}
+		return (short) (z * CHUNK_VERTICES + x);
+	}
+
+	private int addTriangle(short[] indices, int count, short a, short b,
+			short c) {
+		if (a == b || b == c || a == c)
+			return count;
+		indices[count++] = a;
+		indices[count++] = b;
+		indices[count++] = c;
+		return count;
+	}
+
+	/**
+	 * Pick a level of detail for each chunk from its distance to the camera,
+	 * then make sure no chunk is more than one level coarser than any of its
+	 * neighbours, so that every edge can be stitched.
+	 *
+	 * @param eye
+	 */
+	private void selectLevels(double[] eye) {
+		for (TerrainChunk chunk : myChunks) {
+			double distance = chunk.distanceTo(eye);
+			int level = 0;
+			while (level < LEVELS - 1
+					&& distance >= lodDistance * (1 << level)) {
+				level++;
+			}
+			chunk.setLevel(level);
+		}
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int cz = 0; cz < chunksZ; cz++) {
+				for (int cx = 0; cx < chunksX; cx++) {
+					TerrainChunk chunk = myChunks[cz * chunksX + cx];
+					int coarsest = LEVELS - 1;
+					int limit = Math.min(Math.min(level(cx - 1, cz, coarsest),
+							level(cx + 1, cz, coarsest)), Math.min(
+							level(cx, cz - 1, coarsest),
+							level(cx, cz + 1, coarsest))) + 1;
+					if (chunk.getLevel() > limit) {
+						chunk.setLevel(limit);
+						changed = true;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The level of the chunk at the given chunk coordinates, or the fallback
+	 * off the edge of the terrain
+	 */
+	private int level(int cx, int cz, int fallback) {
+		if (cx < 0 || cz < 0 || cx >= chunksX || cz >= chunksZ)
+			return fallback;
+		return myChunks[cz * chunksX + cx].getLevel();
+	}
+
+	/**
+	 * Which edges of a chunk border a coarser chunk
+	 */
+	private int edgeMask(int cx, int cz) {
+		int level = level(cx, cz, 0);
+		int mask = 0;
+		if (level(cx, cz - 1, level) > level)
+			mask |= NORTH;
+		if (level(cx, cz + 1, level) > level)
+			mask |= SOUTH;
+		if (level(cx - 1, cz, level) > level)
+			mask |= WEST;
+		if (level(cx + 1, cz, level) > level)
+			mask |= EAST;
+		return mask;
+	}
+
+	/**
+	 * Write one chunk's vertices and work out its bounding box. Vertices
+	 * past the edge of the terrain are clamped onto it, which leaves only
+	 * degenerate triangles there.
+	 *
+	 * @param chunk
+	 * @param out
+	 *            positioned at the chunk's first vertex
+	 */
+	private void buildChunk(TerrainChunk chunk, FloatBuffer out) {
+		int width = myTerrain.size().width;
+		int depth = myTerrain.size().height;
+		Heightfield heights = myTerrain.getHeightfield();
+		double minY = Double.POSITIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+
+		for (int j = 0; j < CHUNK_VERTICES; j++) {
+			int z = Math.min(chunk.getZ() + j, depth - 1);
+			for (int i = 0; i < CHUNK_VERTICES; i++) {
+				int x = Math.min(chunk.getX() + i, width - 1);
+				float y = heights.get(x, z);
+				minY = Math.min(minY, y);
+				maxY = Math.max(maxY, y);
+
+				// smooth normal from the neighbouring heights
+				double left = heights.get(Math.max(x - 1, 0), z);
+				double right = heights.get(Math.min(x + 1, width - 1), z);
+				double back = heights.get(x, Math.max(z - 1, 0));
+				double front = heights.get(x, Math.min(z + 1, depth - 1));
+				double nx = left - right;
+				double ny = 2;
+				double nz = back - front;
+				double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+				out.put(x);
+				out.put(y);
+				out.put(z);
+				out.put((float) (nx / length));
+				out.put((float) (ny / length));
+				out.put((float) (nz / length));
+				// the texture repeats once per grid cell
+				out.put(x);
+				out.put(z);
+			}
+		}
+
+		chunk.setBounds(chunk.getX(), minY, chunk.getZ(),
+				Math.min(chunk.getX() + CHUNK_SIZE, width - 1), maxY,
+				Math.min(chunk.getZ() + CHUNK_SIZE, depth - 1));
+	}
+
+	/**
+	 * Lay out the chunks if needed and upload the shared indices. Chunk
+	 * vertices are uploaded as the chunks come into view.
+	 *
+	 * @param gl
+	 */
+	public void upload(GL2 gl) {
+		if (!built) {
+			releaseChunks(gl);
+			build();
+		}
+		if (indexBuffer[0] != 0)
+			return;
+
+		GLState state = GLState.getInstance();
+		gl.glGenBuffers(1, indexBuffer, 0);
+		// the element binding belongs to the vertex array, so upload the
+		// indices with none of ours bound
+		state.bindVertexArray(gl, 0);
+		state.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer[0]);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, (long) indexData.limit()
+				* Short.BYTES, indexData, GL.GL_STATIC_DRAW);
+		state.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Build the vertices of the pending chunks from the heightfield, in
+	 * parallel, and upload each into a VBO and vertex array of its own
+	 *
+	 * @param gl
+	 * @param count
+	 *            how many of the pending chunks to build
+	 */
+	private void buildChunks(GL2 gl, int count) {
+		if (vertexData == null)
+			vertexData = Buffers.newDirectFloatBuffer(BUILDS_PER_FRAME
+					* CHUNK_FLOATS);
+
+		// chunks write to separate blocks of the buffer, so they can be
+		// built in parallel
+		IntStream.range(0, count).parallel().forEach(i -> {
+			FloatBuffer out = vertexData.duplicate();
+			out.position(i * CHUNK_FLOATS);
+			buildChunk(myChunks[(int) pending[i]], out);
+		});
+
+		GLState state = GLState.getInstance();
+		for (int i = 0; i < count; i++) {
+			int c = (int) pending[i];
+			if (vertexBuffers[c] == 0) {
+				gl.glGenBuffers(1, vertexBuffers, c);
+				gl.glGenVertexArrays(1, vertexArrays, c);
+				residentChunks++;
+			}
+			FloatBuffer data = vertexData.duplicate();
+			data.position(i * CHUNK_FLOATS);
+			data.limit((i + 1) * CHUNK_FLOATS);
+
+			state.bindVertexArray(gl, vertexArrays[c]);
+			state.bindBuffer(gl, GL.GL_ARRAY_BUFFER, vertexBuffers[c]);
+			gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) CHUNK_FLOATS
+					* Float.BYTES, data, GL.GL_STATIC_DRAW);
+			gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_POS);
+			gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_NORMAL);
+			gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_TEX_COORD);
+			gl.glVertexAttribPointer(ShaderProgram.VERTEX_POS, 3,
+					GL.GL_FLOAT, false, STRIDE, 0);
+			gl.glVertexAttribPointer(ShaderProgram.VERTEX_NORMAL, 3,
+					GL.GL_FLOAT, false, STRIDE, NORMAL_OFFSET);
+			gl.glVertexAttribPointer(ShaderProgram.VERTEX_TEX_COORD, 2,
+					GL.GL_FLOAT, false, STRIDE, TEXCOORD_OFFSET);
+			state.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffer[0]);
+		}
+		state.bindVertexArray(gl, 0);
+		state.bindBuffer(gl, GL.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Drop the chunks that have been out of view longest until no more than
+	 * {@link #MAX_RESIDENT_CHUNKS} are held. Their bounding boxes are kept.
+	 *
+	 * @param gl
+	 */
+	private void evictChunks(GL2 gl) {
+		if (residentChunks <= MAX_RESIDENT_CHUNKS)
+			return;
+
+		int count = 0;
+		for (int c = 0; c < myChunks.length; c++) {
+			if (vertexBuffers[c] != 0 && lastVisible[c] != frame)
+				pending[count++] = (long) lastVisible[c] << 32 | c;
+		}
+		Arrays.sort(pending, 0, count);
+		for (int i = 0; i < count && residentChunks > MAX_RESIDENT_CHUNKS; i++)
+			releaseChunk(gl, (int) pending[i]);
+	}
+
+	/**
+	 * Queue the chunks that are inside the view frustum, each at a level of
+	 * detail picked from its distance to the eye. Visible chunks that are not
+	 * built yet are built first, up to {@link #BUILDS_PER_FRAME} of them,
+	 * and skipped until they are.
+	 *
+	 * @param gl
+	 * @param queue
+	 * @param program
+	 * @param texture
+	 * @param layer
+	 * @param material
+	 * @param frustum
+	 * @param eye
+	 */
+	public void submit(GL2 gl, RenderQueue queue, RenderProgram program,
+			Texture texture, int layer, Material material, Frustum frustum,
+			double[] eye) {
+		upload(gl);
+		frame++;
+		if (pending.length != myChunks.length)
+			pending = new long[myChunks.length];
+
+		int count = 0;
+		for (int i = 0; i < myChunks.length; i++) {
+			if (vertexBuffers[i] == 0 && myChunks[i].isVisible(frustum)) {
+				// distances are positive, so their bits sort like them
+				float distance = (float) myChunks[i].distanceTo(eye);
+				pending[count++] = (long) Float.floatToIntBits(distance) << 32
+						| i;
+			}
+		}
+		if (count > BUILDS_PER_FRAME)
+			Arrays.sort(pending, 0, count);
+		buildChunks(gl, Math.min(count, BUILDS_PER_FRAME));
+
+		selectLevels(eye);
+
+		visibleChunks = 0;
+		visibleTriangles = 0;
+		for (int i = 0; i < myChunks.length; i++) {
+			TerrainChunk chunk = myChunks[i];
+			if (vertexBuffers[i] == 0 || !chunk.isVisible(frustum))
+				continue;
+
+			lastVisible[i] = frame;
+			queue.submit(program, texture, layer, material, vertexArrays[i],
+					chunk.distanceTo(eye), chunkItems[i]);
+			int mask = edgeMask(i % chunksX, i / chunksX);
+			visibleChunks++;
+			visibleTriangles += indexCounts[chunk.getLevel()][mask] / 3;
+		}
+
+		evictChunks(gl);
+	}
+
+	/**
+	 * Draw one chunk at its level of detail, with its vertex array bound
+	 *
+	 * @param gl
+	 * @param i
+	 */
+	private void drawChunk(GL2 gl, int i) {
+		TerrainChunk chunk = myChunks[i];
+		int level = chunk.getLevel();
+		int mask = edgeMask(i % chunksX, i / chunksX);
+		gl.glDrawElements(GL.GL_TRIANGLES, indexCounts[level][mask],
+				GL.GL_UNSIGNED_SHORT, (long) indexOffsets[level][mask]
+						* Short.BYTES);
+	}
+
+	/**
+	 * Delete one chunk's VBO and vertex array
+	 *
+	 * @param gl
+	 * @param c
+	 */
+	private void releaseChunk(GL2 gl, int c) {
+		GLState state = GLState.getInstance();
+		releaseIds[0] = vertexBuffers[c];
+		state.deleteBuffers(gl, 1, releaseIds);
+		releaseIds[0] = vertexArrays[c];
+		state.deleteVertexArrays(gl, 1, releaseIds);
+		vertexBuffers[c] = 0;
+		vertexArrays[c] = 0;
+		residentChunks--;
+	}
+
+	private void releaseChunks(GL2 gl) {
+		for (int c = 0; c < vertexBuffers.length; c++) {
+			if (vertexBuffers[c] != 0)
+				releaseChunk(gl, c);
+		}
+	}
+
+	/**
+	 * Delete the VBOs and the vertex arrays
+	 *
+	 * @param gl
+	 */
+	public void release(GL2 gl) {
+		releaseChunks(gl);
+		if (indexBuffer[0] != 0) {
+			GLState.getInstance().deleteBuffers(gl, 1, indexBuffer);
+			indexBuffer[0] = 0;
+		}
+		invalidate();
+	}
+}
@@ -1,69 +1,80 @@
 package World.spec;
 
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 
-import javax.imageio.ImageIO;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
-import javax.media.opengl.GLProfile;
-
-import com.jogamp.opengl.util.awt.ImageUtil;
-import com.jogamp.opengl.util.texture.TextureData;
-import com.jogamp.opengl.util.texture.awt.AWTTextureIO;
 
+/**
+ * Texture class, an OpenGL texture. Textures loaded from files come from the
+ * TextureManager, which decodes them in the background and uploads them once
+ * they are ready, so until then they hold the manager's placeholder.
+ */
 public class Texture {
-	private int[] textureID = new int[1];
-	
-	
-	//Create a texture from a file. Make sure the file has a width and height
-	//that is a power of 2
-	public Texture(GL2 gl, String fileName,String extension) {
-		TextureData data = null;
-		try {
-			 File file = new File(fileName);
-			 BufferedImage img = ImageIO.read(file); // read file into BufferedImage
-			 ImageUtil.flipImageVertically(img);
-
-			 //This library will result in different formats being upside down.
-		    //data = TextureIO.newTextureData(GLProfile.getDefault(), file, false,extension);
-			 
-			 //This library call flips all images the same way
-			data = AWTTextureIO.newTextureData(GLProfile.getDefault(), img, false);
-			
-		} catch (IOException exc) {
-			System.err.println(fileName);
-            exc.printStackTrace();
-            System.exit(1);
-        }
-		
-		gl.glGenTextures(1, textureID, 0);
+	int[] textureID = new int[1];
+	volatile boolean ready = false;
+	private volatile boolean deleted = false;
+
+	// the manager's cache key, null for textures it does not own
+	private String myKey;
+	private TextureSampler mySampler;
+	// guarded by the manager's cache
+	private int references = 0;
+
+	/**
+	 * An empty texture, waiting for its image
+	 */
+	Texture(String key, TextureSampler sampler) {
+		myKey = key;
+		mySampler = sampler;
+	}
+
+	/**
+	 * Wrap a texture made elsewhere, such as a render target. The texture
+	 * then owns the id, and deletes it when released.
+	 */
+	Texture(int id, TextureSampler sampler) {
+		mySampler = sampler;
+		textureID[0] = id;
+		ready = true;
+	}
+
+	/**
+	 * Upload a decoded image into this texture. Must be called on the GL
+	 * thread.
+	 * 
+	 * @param gl
+	 * @param image
+	 */
+	void upload(GL2 gl, TextureImage image) {
+		int[] ids = new int[1];
+		gl.glGenTextures(1, ids, 0);
 		//The first time bind is called with the given id,
 		//an openGL texture object is created and bound to the id
 		//It also makes it the current texture.
-		gl.glBindTexture(GL.GL_TEXTURE_2D, textureID[0]);
-
-		 // Build texture initialised with image data.
-        gl.glTexImage2D(GL.GL_TEXTURE_2D, 0,
-        				data.getInternalFormat(),
-        				data.getWidth(),
-        				data.getHeight(),
-        				0,
-        				data.getPixelFormat(),
-        				data.getPixelType(),
-        				data.getBuffer());
-		
-        setFilters(gl);
-		
+		GLState.getInstance().bindTexture(gl, GL.GL_TEXTURE_2D, ids[0]);
+
+		// Build texture initialised with image data, and its mipmaps if the
+		// image brought them
+		for (int level = 0; level < image.getLevelCount(); level++) {
+			TextureImage mip = image.getLevel(level);
+			gl.glTexImage2D(GL.GL_TEXTURE_2D, level, GL.GL_RGBA8,
+					mip.getWidth(), mip.getHeight(), 0, GL.GL_RGBA,
+					GL.GL_UNSIGNED_BYTE, mip.getPixels());
+		}
+
+		if (image.getLevelCount() > 1)
+			mySampler.apply(gl);
+		else
+			setFilters(gl);
+		textureID[0] = ids[0];
+		ready = true;
 	}
 	
     private void setFilters(GL2 gl){
     	// Build the texture from data.
     		// Set texture parameters to enable automatic mipmap generation and bilinear/trilinear filtering
-    		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
-    		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR_MIPMAP_LINEAR);
+    		mySampler.apply(gl);
     		//float fLargest[] = new float[1];
 
     		//gl.glGetFloatv(GL.GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT, fLargest,0);
@@ -75,26 +86,104 @@ public class Texture {
     }
     
 	public Texture(GL2 gl, ByteBuffer buffer, int size) {
+		mySampler = TextureSampler.DEFAULT;
 		gl.glGenTextures(1, textureID, 0);
-		gl.glBindTexture(GL.GL_TEXTURE_2D, textureID[0]);
+		GLState.getInstance().bindTexture(gl, GL.GL_TEXTURE_2D, textureID[0]);
 	
 
 		// Specify image data for currently active texture object.
 		gl.glTexImage2D(GL2.GL_TEXTURE_2D, 0, GL2.GL_RGBA, size, size, 0, GL2.GL_RGBA, GL2.GL_UNSIGNED_BYTE,buffer);
 		
 		setFilters(gl);
-		
+		ready = true;
+	}
+
+	/**
+	 * Whether the texture's own image has been uploaded
+	 * 
+	 * @return
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	boolean isDeleted() {
+		return deleted;
+	}
+
+	String getKey() {
+		return myKey;
+	}
+
+	public TextureSampler getSampler() {
+		return mySampler;
+	}
+
+	void addReference() {
+		references++;
+	}
+
+	/**
+	 * @return the number of users left
+	 */
+	int removeReference() {
+		return --references;
+	}
+
+	boolean isReferenced() {
+		return references > 0;
+	}
+
+	/**
+	 * Point a texture that is not ready yet at a placeholder
+	 */
+	void setTextureId(int id) {
+		if (!ready)
+			textureID[0] = id;
 	}
 	
 	public int getTextureId() {
 		return textureID[0];
 	}
-	
+
+	/**
+	 * Bind the texture to the current texture unit. A texture still waiting
+	 * for its image binds the placeholder, never texture 0.
+	 * 
+	 * @param gl
+	 */
+	public void bind(GL2 gl) {
+		if (textureID[0] == 0 && !ready)
+			setTextureId(TextureManager.getInstance().getPlaceholder(gl)
+					.getTextureId());
+		GLState.getInstance().bindTexture(gl, GL.GL_TEXTURE_2D, textureID[0]);
+	}
+
+	/**
+	 * Let go of the texture. Shared textures are only deleted once all their
+	 * users have released them.
+	 * 
+	 * @param gl
+	 */
 	public void release(GL2 gl) {
-		if (textureID[0] > 0) {
-			gl.glDeleteTextures(1, textureID, 0);
-		}
+		if (myKey != null)
+			TextureManager.getInstance().release(gl, this);
+		else
+			delete(gl);
 	}
-}
 
+	/**
+	 * Whether the texture id is the texture's own, rather than a placeholder
+	 */
+	boolean ownsTextureId() {
+		return ready;
+	}
 
+	void delete(GL2 gl) {
+		if (ownsTextureId() && textureID[0] > 0) {
+			GLState.getInstance().deleteTextures(gl, 1, textureID);
+		}
+		textureID[0] = 0;
+		deleted = true;
+	}
+}
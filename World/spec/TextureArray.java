@@ -0,0 +1,159 @@
+package World.spec;
+
+import java.util.Arrays;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+/**
+ * TextureArray class, several images of the same size stacked into the layers
+ * of one GL_TEXTURE_2D_ARRAY, so geometry using any of them can be drawn
+ * without binding another texture. Shaders pick the layer with a uniform.
+ * Layers start out grey and are filled in as their images finish decoding.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class TextureArray extends Texture {
+
+	private String[] myFileNames;
+	private int mySize;
+	private int uploadedLayers = 0;
+
+	/**
+	 * An empty array, waiting for its images
+	 */
+	TextureArray(String key, String[] fileNames, int size) {
+		super(key, TextureSampler.DEFAULT);
+		myFileNames = Arrays.copyOf(fileNames, fileNames.length);
+		mySize = size;
+	}
+
+	/**
+	 * Get the shared texture array for a set of files, with every image
+	 * scaled to size x size. Release it when done with it.
+	 * 
+	 * @param fileNames
+	 * @param size
+	 * @return
+	 */
+	public static TextureArray load(String[] fileNames, int size) {
+		return TextureManager.getInstance().loadArray(fileNames, size);
+	}
+
+	/**
+	 * Start decoding a texture array's images in the background, without
+	 * taking a reference. The array is deleted again if it is not loaded
+	 * within a minute.
+	 * 
+	 * @param fileNames
+	 * @param size
+	 */
+	public static void preload(String[] fileNames, int size) {
+		TextureManager.getInstance().preloadArray(fileNames, size);
+	}
+
+	/**
+	 * The layer holding an image
+	 * 
+	 * @param fileName
+	 *            as it was given when the array was loaded
+	 * @return
+	 */
+	public int getLayer(String fileName) {
+		return Arrays.asList(myFileNames).indexOf(fileName);
+	}
+
+	public int getLayerCount() {
+		return myFileNames.length;
+	}
+
+	public int getSize() {
+		return mySize;
+	}
+
+	/**
+	 * Bind the array to the current texture unit, creating it first if
+	 * needed. Must be called on the GL thread.
+	 * 
+	 * @param gl
+	 */
+	@Override
+	public void bind(GL2 gl) {
+		if (textureID[0] == 0)
+			allocate(gl);
+		GLState.getInstance().bindTexture(gl, GL2.GL_TEXTURE_2D_ARRAY,
+				textureID[0]);
+	}
+
+	/**
+	 * Create the array with every layer grey. The layers are cleared through
+	 * a framebuffer, so no buffer the size of the whole array is filled.
+	 */
+	private void allocate(GL2 gl) {
+		gl.glGenTextures(1, textureID, 0);
+		GLState.getInstance().bindTexture(gl, GL2.GL_TEXTURE_2D_ARRAY,
+				textureID[0]);
+		gl.glTexImage3D(GL2.GL_TEXTURE_2D_ARRAY, 0, GL.GL_RGBA8, mySize,
+				mySize, myFileNames.length, 0, GL.GL_RGBA,
+				GL.GL_UNSIGNED_BYTE, null);
+		getSampler().apply(gl, GL2.GL_TEXTURE_2D_ARRAY);
+
+		float clearColor[] = new float[4];
+		gl.glGetFloatv(GL.GL_COLOR_CLEAR_VALUE, clearColor, 0);
+		int framebuffer[] = new int[1];
+		gl.glGenFramebuffers(1, framebuffer, 0);
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebuffer[0]);
+		gl.glClearColor(128 / 255f, 128 / 255f, 128 / 255f, 1);
+		for (int layer = 0; layer < myFileNames.length; layer++) {
+			gl.glFramebufferTextureLayer(GL.GL_FRAMEBUFFER,
+					GL.GL_COLOR_ATTACHMENT0, textureID[0], 0, layer);
+			gl.glClear(GL.GL_COLOR_BUFFER_BIT);
+		}
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER,
+				gl.getDefaultDrawFramebuffer());
+		gl.glDeleteFramebuffers(1, framebuffer, 0);
+		gl.glClearColor(clearColor[0], clearColor[1], clearColor[2],
+				clearColor[3]);
+
+		gl.glGenerateMipmap(GL2.GL_TEXTURE_2D_ARRAY);
+	}
+
+	/**
+	 * Upload one decoded image into its layer. Must be called on the GL
+	 * thread.
+	 * 
+	 * @param gl
+	 * @param layer
+	 * @param image
+	 *            size x size, with either no mipmaps or all of them
+	 */
+	void uploadLayer(GL2 gl, int layer, TextureImage image) {
+		bind(gl);
+		for (int level = 0; level < image.getLevelCount(); level++) {
+			TextureImage mip = image.getLevel(level);
+			gl.glTexSubImage3D(GL2.GL_TEXTURE_2D_ARRAY, level, 0, 0, layer,
+					mip.getWidth(), mip.getHeight(), 1, GL.GL_RGBA,
+					GL.GL_UNSIGNED_BYTE, mip.getPixels());
+		}
+		// an image without mipmaps leaves the layer's old ones behind
+		if (image.getLevelCount() == 1)
+			gl.glGenerateMipmap(GL2.GL_TEXTURE_2D_ARRAY);
+		GLState.getInstance().bindTexture(gl, GL2.GL_TEXTURE_2D_ARRAY, 0);
+
+		if (++uploadedLayers == myFileNames.length)
+			ready = true;
+	}
+
+	/**
+	 * The array is never given a placeholder's id, a 2D texture cannot be
+	 * bound as an array
+	 */
+	@Override
+	void setTextureId(int id) {
+	}
+
+	@Override
+	boolean ownsTextureId() {
+		return true;
+	}
+}
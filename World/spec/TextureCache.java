@@ -0,0 +1,195 @@
+package World.spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * TextureCache class, keeps decoded images on disk with their mipmaps already
+ * built, so that after the first run a texture is read straight into its
+ * upload buffer instead of being decoded from a JPEG again. Cached images are
+ * keyed by a hash of the source file's contents, so editing an image makes
+ * its old entry unused rather than stale.
+ *
+ * A cache file is a 20 byte header (magic, version, width, height, levels)
+ * followed by the RGBA bytes of every level, largest first.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class TextureCache {
+
+	public static final String CACHE_DIRECTORY = "TextureCache";
+	private static final String EXTENSION = ".tex";
+	private static final int MAGIC = 0x54455843;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 20;
+
+	private TextureCache() {
+	}
+
+	/**
+	 * Read an image and its mipmaps, from the cache if it has been read
+	 * before
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 *             if the file cannot be read or is not an image
+	 */
+	public static TextureImage read(File file) throws IOException {
+		return read(file, 0, 0);
+	}
+
+	/**
+	 * Read an image scaled to the given size and its mipmaps, from the cache
+	 * if it has been read at that size before
+	 *
+	 * @param file
+	 * @param width
+	 *            0 to keep the image's own size
+	 * @param height
+	 *            0 to keep the image's own size
+	 * @return
+	 * @throws IOException
+	 *             if the file cannot be read or is not an image
+	 */
+	public static TextureImage read(File file, int width, int height)
+			throws IOException {
+		File cached = new File(CACHE_DIRECTORY, hash(file) + "-" + width
+				+ "x" + height + EXTENSION);
+		if (cached.isFile()) {
+			try {
+				return readCached(cached);
+			} catch (IOException e) {
+				// fall back to the source and write the entry again
+				System.err.println("Ignoring bad texture cache entry "
+						+ cached);
+			}
+		}
+
+		TextureImage image = width > 0 ? TextureImage.read(file, width,
+				height) : TextureImage.read(file);
+		image = image.withMipmaps();
+		try {
+			write(image, cached);
+		} catch (IOException e) {
+			// the image is still usable, it will just be decoded next time
+			System.err.println("Could not cache texture " + file);
+			e.printStackTrace();
+		}
+		return image;
+	}
+
+	private static TextureImage readCached(File cached) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(cached, "r");
+				FileChannel channel = raf.getChannel()) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			readFully(channel, header);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException(cached + " is not a cached texture");
+			}
+			int width = header.getInt();
+			int height = header.getInt();
+			int levels = header.getInt();
+
+			long bytes = channel.size() - HEADER_BYTES;
+			// a truncated entry would otherwise only fail on the GL thread
+			if (width <= 0 || height <= 0 || levels < 1 || levels > 32
+					|| bytes != levelBytes(width, height, levels)) {
+				throw new IOException(cached + " does not hold a " + width
+						+ "x" + height + " image with " + levels + " levels");
+			}
+			if (bytes > Integer.MAX_VALUE)
+				throw new IOException(cached + " is too large");
+			ByteBuffer pixels = Buffers.newDirectByteBuffer((int) bytes);
+			readFully(channel, pixels);
+			pixels.flip();
+			return new TextureImage(width, height, levels, pixels);
+		}
+	}
+
+	/**
+	 * The size of the first levels of an image's mipmap chain, in RGBA bytes
+	 */
+	private static long levelBytes(int width, int height, int levels) {
+		long bytes = 0;
+		for (int level = 0; level < levels; level++) {
+			bytes += (long) Math.max(width >> level, 1)
+					* Math.max(height >> level, 1) * 4;
+		}
+		return bytes;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0)
+				throw new IOException("Unexpected end of texture cache entry");
+		}
+	}
+
+	/**
+	 * Write an entry under a temporary name and then move it into place, so
+	 * that a reader never sees half of one
+	 */
+	private static void write(TextureImage image, File cached)
+			throws IOException {
+		File dir = cached.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Could not create " + dir);
+
+		File temp = File.createTempFile("texture", EXTENSION, dir);
+		try (RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+				FileChannel channel = raf.getChannel()) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(image.getWidth());
+			header.putInt(image.getHeight());
+			header.putInt(image.getLevelCount());
+			header.flip();
+
+			ByteBuffer pixels = image.getPixels().duplicate();
+			pixels.rewind();
+			channel.write(new ByteBuffer[] { header, pixels });
+			while (pixels.hasRemaining()) {
+				channel.write(pixels);
+			}
+		}
+		Files.move(temp.toPath(), cached.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * A hex SHA-1 of a file's contents
+	 */
+	private static String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size()));
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+}
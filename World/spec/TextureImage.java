@@ -0,0 +1,219 @@
+package World.spec;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * TextureImage class, an image decoded into RGBA bytes in a direct buffer,
+ * bottom row first as OpenGL expects. It may also carry its mipmap chain,
+ * each level following the one before it in the buffer. Decoding does not
+ * need a GL context, so it can happen on any thread.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class TextureImage {
+
+	private int myWidth;
+	private int myHeight;
+	private int myLevels;
+	private ByteBuffer myPixels;
+
+	public TextureImage(int width, int height, ByteBuffer pixels) {
+		this(width, height, 1, pixels);
+	}
+
+	/**
+	 * An image with its first levels mipmaps
+	 * 
+	 * @param width
+	 * @param height
+	 * @param levels
+	 *            including the image itself
+	 * @param pixels
+	 *            every level, largest first
+	 */
+	public TextureImage(int width, int height, int levels, ByteBuffer pixels) {
+		myWidth = width;
+		myHeight = height;
+		myLevels = levels;
+		myPixels = pixels;
+	}
+
+	/**
+	 * Read and decode an image file
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 *             if the file cannot be read or is not an image
+	 */
+	public static TextureImage read(File file) throws IOException {
+		return fromImage(readImage(file));
+	}
+
+	/**
+	 * Read and decode an image file, scaling it to the given size
+	 * 
+	 * @param file
+	 * @param width
+	 * @param height
+	 * @return
+	 * @throws IOException
+	 *             if the file cannot be read or is not an image
+	 */
+	public static TextureImage read(File file, int width, int height)
+			throws IOException {
+		BufferedImage img = readImage(file);
+		if (img.getWidth() != width || img.getHeight() != height) {
+			BufferedImage scaled = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = scaled.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(img, 0, 0, width, height, null);
+			g.dispose();
+			img = scaled;
+		}
+		return fromImage(img);
+	}
+
+	private static BufferedImage readImage(File file) throws IOException {
+		BufferedImage img = ImageIO.read(file);
+		if (img == null)
+			throw new IOException(file + " is not an image");
+		return img;
+	}
+
+	private static TextureImage fromImage(BufferedImage img) {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int[] row = new int[width];
+		ByteBuffer pixels = Buffers.newDirectByteBuffer(width * height * 4);
+		// flip the image, images start at the top and textures at the bottom
+		for (int y = height - 1; y >= 0; y--) {
+			img.getRGB(0, y, width, 1, row, 0, width);
+			for (int x = 0; x < width; x++) {
+				int argb = row[x];
+				pixels.put((byte) (argb >> 16));
+				pixels.put((byte) (argb >> 8));
+				pixels.put((byte) argb);
+				pixels.put((byte) (argb >> 24));
+			}
+		}
+		pixels.flip();
+		return new TextureImage(width, height, pixels);
+	}
+
+	public int getWidth() {
+		return myWidth;
+	}
+
+	public int getHeight() {
+		return myHeight;
+	}
+
+	/**
+	 * The pixels of every level
+	 * 
+	 * @return
+	 */
+	public ByteBuffer getPixels() {
+		return myPixels;
+	}
+
+	/**
+	 * The number of levels, 1 if the image has no mipmaps
+	 * 
+	 * @return
+	 */
+	public int getLevelCount() {
+		return myLevels;
+	}
+
+	/**
+	 * One level of the mipmap chain, sharing this image's pixels
+	 * 
+	 * @param level
+	 * @return
+	 */
+	public TextureImage getLevel(int level) {
+		if (level == 0 && myLevels == 1)
+			return this;
+		int offset = 0;
+		for (int i = 0; i < level; i++) {
+			offset += levelWidth(myWidth, i) * levelWidth(myHeight, i) * 4;
+		}
+		int width = levelWidth(myWidth, level);
+		int height = levelWidth(myHeight, level);
+		ByteBuffer pixels = myPixels.duplicate();
+		pixels.limit(offset + width * height * 4);
+		pixels.position(offset);
+		return new TextureImage(width, height, pixels.slice());
+	}
+
+	/**
+	 * This image with its full mipmap chain down to 1x1, each level a box
+	 * filtered copy of the one before it
+	 * 
+	 * @return
+	 */
+	public TextureImage withMipmaps() {
+		int levels = 1;
+		int bytes = myWidth * myHeight * 4;
+		while (levelWidth(myWidth, levels - 1) > 1
+				|| levelWidth(myHeight, levels - 1) > 1) {
+			bytes += levelWidth(myWidth, levels) * levelWidth(myHeight, levels)
+					* 4;
+			levels++;
+		}
+
+		ByteBuffer pixels = Buffers.newDirectByteBuffer(bytes);
+		ByteBuffer first = getLevel(0).getPixels().duplicate();
+		first.rewind();
+		pixels.put(first);
+
+		int from = 0;
+		int width = myWidth;
+		int height = myHeight;
+		for (int level = 1; level < levels; level++) {
+			int w = levelWidth(myWidth, level);
+			int h = levelWidth(myHeight, level);
+			for (int y = 0; y < h; y++) {
+				int y0 = Math.min(y * 2, height - 1);
+				int y1 = Math.min(y * 2 + 1, height - 1);
+				for (int x = 0; x < w; x++) {
+					int x0 = Math.min(x * 2, width - 1);
+					int x1 = Math.min(x * 2 + 1, width - 1);
+					int a = from + (y0 * width + x0) * 4;
+					int b = from + (y0 * width + x1) * 4;
+					int c = from + (y1 * width + x0) * 4;
+					int d = from + (y1 * width + x1) * 4;
+					for (int k = 0; k < 4; k++) {
+						int sum = (pixels.get(a + k) & 0xFF)
+								+ (pixels.get(b + k) & 0xFF)
+								+ (pixels.get(c + k) & 0xFF)
+								+ (pixels.get(d + k) & 0xFF);
+						pixels.put((byte) ((sum + 2) / 4));
+					}
+				}
+			}
+			from += width * height * 4;
+			width = w;
+			height = h;
+		}
+		pixels.flip();
+		return new TextureImage(myWidth, myHeight, levels, pixels);
+	}
+
+	private static int levelWidth(int width, int level) {
+		return Math.max(width >> level, 1);
+	}
+}
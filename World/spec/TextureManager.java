@@ -0,0 +1,281 @@
+package World.spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.media.opengl.GL2;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * TextureManager class, a shared cache of textures that decodes their images
+ * on background threads and uploads them on the GL thread. A texture can be
+ * asked for at any time and is drawn with a plain placeholder until its image
+ * has been uploaded, so the GL thread never waits for an image to be read.
+ * 
+ * Decoded images go through the TextureCache, so after the first run they
+ * are read from disk with their mipmaps instead of decoded again.
+ * 
+ * Textures are keyed by the image's canonical path and their sampler
+ * settings, so every user of an image shares one GL texture. Each load must
+ * be matched by a release, and the texture is deleted when the last user
+ * releases it. A preloaded texture that nobody loads within PRELOAD_TIMEOUT
+ * is deleted too.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class TextureManager {
+
+	private static final TextureManager INSTANCE = new TextureManager();
+
+	// how long a preloaded texture waits for its first load, in nanoseconds
+	private static final long PRELOAD_TIMEOUT = 60_000_000_000L;
+
+	private ExecutorService decoder;
+	private Map<String, Texture> textures =
+			new ConcurrentHashMap<String, Texture>();
+	// decoded images waiting for the GL thread
+	private Queue<Upload> uploads = new ConcurrentLinkedQueue<Upload>();
+	// when each preloaded texture nobody has loaded yet was preloaded
+	private Map<String, Long> preloads = new ConcurrentHashMap<String, Long>();
+	private volatile Texture placeholder;
+
+	private static class Upload {
+		private Texture texture;
+		private TextureImage image;
+		// the array layer the image goes in, or -1 for a plain texture
+		private int layer;
+
+		private Upload(Texture texture, TextureImage image, int layer) {
+			this.texture = texture;
+			this.image = image;
+			this.layer = layer;
+		}
+	}
+
+	private TextureManager() {
+		decoder = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors(), task -> {
+			Thread thread = new Thread(task, "texture decoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static TextureManager getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Get the texture for an image file, starting to decode it if nobody is
+	 * using it yet. Does not need a GL context.
+	 * 
+	 * @param fileName
+	 * @param sampler
+	 * @return a texture, which may not be ready yet
+	 */
+	public Texture load(String fileName, TextureSampler sampler) {
+		String path = canonicalPath(fileName);
+		return textures.compute(path + "|" + sampler, (key, texture) -> {
+			if (texture == null)
+				texture = create(key, path, sampler);
+			texture.addReference();
+			return texture;
+		});
+	}
+
+	/**
+	 * Let go of a texture, deleting it if this was its last user. Must be
+	 * called on the GL thread.
+	 * 
+	 * @param gl
+	 * @param texture
+	 */
+	public void release(GL2 gl, Texture texture) {
+		textures.computeIfPresent(texture.getKey(), (key, cached) -> {
+			if (cached != texture || cached.removeReference() > 0)
+				return cached;
+			cached.delete(gl);
+			return null;
+		});
+	}
+
+	/**
+	 * Get the texture array for a set of image files, starting to decode them
+	 * if nobody is using it yet. Does not need a GL context.
+	 * 
+	 * @param fileNames
+	 * @param size
+	 *            the width and height every image is scaled to
+	 * @return an array, whose layers may not be ready yet
+	 */
+	public TextureArray loadArray(String[] fileNames, int size) {
+		String[] paths = canonicalPaths(fileNames);
+		return (TextureArray) textures.compute(arrayKey(paths, size),
+				(key, texture) -> {
+					if (texture == null)
+						texture = createArray(key, fileNames, paths, size);
+					texture.addReference();
+					preloads.remove(key);
+					return texture;
+				});
+	}
+
+	/**
+	 * Start decoding a texture array's images without taking a reference to
+	 * it. If nobody loads it within PRELOAD_TIMEOUT it is deleted again.
+	 * 
+	 * @param fileNames
+	 * @param size
+	 */
+	public void preloadArray(String[] fileNames, int size) {
+		String[] paths = canonicalPaths(fileNames);
+		textures.computeIfAbsent(arrayKey(paths, size), key -> {
+			preloads.put(key, System.nanoTime());
+			return createArray(key, fileNames, paths, size);
+		});
+	}
+
+	/**
+	 * Delete the preloaded textures that have waited too long for a load.
+	 * Must be called on the GL thread.
+	 * 
+	 * @param gl
+	 */
+	private void expirePreloads(GL2 gl) {
+		long now = System.nanoTime();
+		for (Map.Entry<String, Long> preload : preloads.entrySet()) {
+			if (now - preload.getValue() < PRELOAD_TIMEOUT
+					|| !preloads.remove(preload.getKey(), preload.getValue()))
+				continue;
+			textures.computeIfPresent(preload.getKey(), (key, texture) -> {
+				if (texture.isReferenced())
+					return texture;
+				texture.delete(gl);
+				return null;
+			});
+		}
+	}
+
+	private TextureArray createArray(String key, String[] fileNames,
+			String[] paths, int size) {
+		TextureArray array = new TextureArray(key, fileNames, size);
+		for (int i = 0; i < paths.length; i++) {
+			String path = paths[i];
+			int layer = i;
+			decoder.execute(() -> {
+				try {
+					uploads.add(new Upload(array, TextureCache.read(new File(
+							path), size, size), layer));
+				} catch (Exception e) {
+					// leave the layer grey
+					System.err.println("Could not load texture " + path);
+					e.printStackTrace();
+				}
+			});
+		}
+		return array;
+	}
+
+	private static String arrayKey(String[] paths, int size) {
+		return "array|" + String.join("|", paths) + "|" + size;
+	}
+
+	private static String[] canonicalPaths(String[] fileNames) {
+		String[] paths = new String[fileNames.length];
+		for (int i = 0; i < fileNames.length; i++) {
+			paths[i] = canonicalPath(fileNames[i]);
+		}
+		return paths;
+	}
+
+	private Texture create(String key, String path, TextureSampler sampler) {
+		Texture texture = new Texture(key, sampler);
+		if (placeholder != null)
+			texture.setTextureId(placeholder.getTextureId());
+		decoder.execute(() -> {
+			try {
+				uploads.add(new Upload(texture, TextureCache.read(new File(
+						path)), -1));
+			} catch (Exception e) {
+				// keep drawing the placeholder
+				System.err.println("Could not load texture " + path);
+				e.printStackTrace();
+			}
+		});
+		return texture;
+	}
+
+	private static String canonicalPath(String fileName) {
+		File file = new File(fileName);
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException e) {
+			return file.getAbsolutePath();
+		}
+	}
+
+	/**
+	 * Create the placeholder and point every texture still waiting for its
+	 * image at it. Call on the GL thread before anything is drawn; textures
+	 * loaded after this get the placeholder straight away.
+	 * 
+	 * @param gl
+	 */
+	public void init(GL2 gl) {
+		if (placeholder != null)
+			return;
+		// a single mid grey texel
+		ByteBuffer grey = Buffers.newDirectByteBuffer(new byte[] { (byte) 128,
+				(byte) 128, (byte) 128, (byte) 255 });
+		Texture texture = new Texture(null, TextureSampler.DEFAULT);
+		texture.upload(gl, new TextureImage(1, 1, grey));
+		placeholder = texture;
+		for (Texture waiting : textures.values()) {
+			waiting.setTextureId(placeholder.getTextureId());
+		}
+	}
+
+	/**
+	 * The texture drawn in place of those still waiting for their image,
+	 * creating it if needed. Must be called on the GL thread.
+	 * 
+	 * @param gl
+	 * @return
+	 */
+	Texture getPlaceholder(GL2 gl) {
+		init(gl);
+		return placeholder;
+	}
+
+	/**
+	 * Upload every image that has finished decoding. Call once per frame on
+	 * the GL thread, before drawing.
+	 * 
+	 * @param gl
+	 */
+	public void processUploads(GL2 gl) {
+		init(gl);
+		if (!preloads.isEmpty())
+			expirePreloads(gl);
+
+		Upload upload;
+		while ((upload = uploads.poll()) != null) {
+			// skip textures everyone let go of while they were decoding
+			if (upload.texture.isDeleted())
+				continue;
+			if (upload.layer < 0)
+				upload.texture.upload(gl, upload.image);
+			else
+				((TextureArray) upload.texture).uploadLayer(gl, upload.layer,
+						upload.image);
+		}
+	}
+}
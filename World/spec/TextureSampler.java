@@ -0,0 +1,84 @@
+package World.spec;
+
+import javax.media.opengl.GL;
+
+/**
+ * TextureSampler class, the wrap and filter settings a texture is created
+ * with. Textures of the same image with different settings are different
+ * textures.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class TextureSampler {
+
+	// repeating, with trilinear filtering
+	public static final TextureSampler DEFAULT = new TextureSampler(
+			GL.GL_REPEAT, GL.GL_LINEAR_MIPMAP_LINEAR, GL.GL_LINEAR);
+
+	// clamped to the edge, with trilinear filtering
+	public static final TextureSampler CLAMP = new TextureSampler(
+			GL.GL_CLAMP_TO_EDGE, GL.GL_LINEAR_MIPMAP_LINEAR, GL.GL_LINEAR);
+
+	private int myWrap;
+	private int myMinFilter;
+	private int myMagFilter;
+
+	public TextureSampler(int wrap, int minFilter, int magFilter) {
+		myWrap = wrap;
+		myMinFilter = minFilter;
+		myMagFilter = magFilter;
+	}
+
+	public int getWrap() {
+		return myWrap;
+	}
+
+	public int getMinFilter() {
+		return myMinFilter;
+	}
+
+	public int getMagFilter() {
+		return myMagFilter;
+	}
+
+	/**
+	 * Set the sampler's parameters on the bound 2D texture
+	 * 
+	 * @param gl
+	 */
+	public void apply(GL gl) {
+		apply(gl, GL.GL_TEXTURE_2D);
+	}
+
+	/**
+	 * Set the sampler's parameters on the texture bound to a target
+	 * 
+	 * @param gl
+	 * @param target
+	 */
+	public void apply(GL gl, int target) {
+		gl.glTexParameteri(target, GL.GL_TEXTURE_WRAP_S, myWrap);
+		gl.glTexParameteri(target, GL.GL_TEXTURE_WRAP_T, myWrap);
+		gl.glTexParameteri(target, GL.GL_TEXTURE_MIN_FILTER, myMinFilter);
+		gl.glTexParameteri(target, GL.GL_TEXTURE_MAG_FILTER, myMagFilter);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof TextureSampler))
+			return false;
+		TextureSampler other = (TextureSampler) o;
+		return myWrap == other.myWrap && myMinFilter == other.myMinFilter
+				&& myMagFilter == other.myMagFilter;
+	}
+
+	@Override
+	public int hashCode() {
+		return (myWrap * 31 + myMinFilter) * 31 + myMagFilter;
+	}
+
+	@Override
+	public String toString() {
+		return myWrap + "/" + myMinFilter + "/" + myMagFilter;
+	}
+}
@@ -0,0 +1,247 @@
+package World.spec;
+
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * TreeImpostor class, holds a picture of a tree rendered offscreen once and
+ * draws distant trees as camera facing billboards textured with it
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class TreeImpostor implements RenderProgram {
+
+	private static final String VERTEX_SHADER = "Shaders/ImpostorVertex.glsl";
+	private static final String FRAGMENT_SHADER = "Shaders/ImpostorFragment.glsl";
+
+	// size of the billboard, big enough for the leaves and the whole trunk
+	public static final double WIDTH = 2 * TreeRenderer.LEAVES_RADIUS;
+	public static final double HEIGHT = TreeRenderer.HEIGHT
+			+ TreeRenderer.LEAVES_RADIUS;
+
+	private static final int TEXTURE_WIDTH = 128;
+	private static final int TEXTURE_HEIGHT = 384;
+
+	// the leaves colour is already in the texture
+	private static final Material MATERIAL = new Material(new float[] { 0.2f,
+			0.2f, 0.2f, 1.0f }, new float[] { 1.0f, 1.0f, 1.0f, 1.0f },
+			new float[] { 0.0f, 0.0f, 0.0f, 1.0f }, 0f);
+
+	private int textureID[] = new int[1];
+	// the baked texture, for the render queue
+	private Texture texture;
+	// billboard corners
+	private int bufferIds[] = new int[1];
+	private int vertexArray[] = new int[1];
+	// looks at the tree from the side, filling the billboard
+	private float[] bakeProjection = new float[16];
+
+	private ShaderProgram shader;
+	private int viewProjectionLoc;
+	private int cameraRightLoc;
+	private int sizeLoc;
+	private int textureLoc;
+	private int[] lightLocs;
+	private int[] materialLocs;
+
+	private int billboardCount;
+	private double[] myCameraRight;
+	private RenderItem billboards = this::drawBillboards;
+
+	/**
+	 * Create the billboard buffer and shader, and render the tree drawn by
+	 * the given renderer into the impostor texture
+	 *
+	 * @param gl
+	 * @param trees
+	 *            must already be initialised
+	 * @param instances
+	 *            VBO the tree positions will be in
+	 */
+	public void init(GL2 gl, TreeRenderer trees, int instances) {
+		FloatBuffer corners = Buffers.newDirectFloatBuffer(new float[] {
+				-0.5f, 0, 0.5f, 0, 0.5f, 1, -0.5f, 1 });
+		gl.glGenVertexArrays(1, vertexArray, 0);
+		GLState.getInstance().bindVertexArray(gl, vertexArray[0]);
+		gl.glGenBuffers(1, bufferIds, 0);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, bufferIds[0]);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, corners.limit() * Float.BYTES,
+				corners, GL.GL_STATIC_DRAW);
+		gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_CORNER);
+		gl.glVertexAttribPointer(ShaderProgram.VERTEX_CORNER, 2, GL.GL_FLOAT,
+				false, 0, 0);
+
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, instances);
+		gl.glEnableVertexAttribArray(ShaderProgram.INSTANCE_POS);
+		gl.glVertexAttribPointer(ShaderProgram.INSTANCE_POS, 3, GL.GL_FLOAT,
+				false, 0, 0);
+		ShaderProgram.setAttribDivisor(gl, ShaderProgram.INSTANCE_POS, 1);
+		GLState.getInstance().bindVertexArray(gl, 0);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, 0);
+
+		double[] ortho = new double[16];
+		MathUtil.ortho(-WIDTH / 2, WIDTH / 2, 0, HEIGHT, -1, 1, ortho);
+		MathUtil.toFloats(ortho, bakeProjection);
+
+		try {
+			shader = ShaderRegistry.getInstance().load(gl,
+					VERTEX_SHADER, FRAGMENT_SHADER);
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		viewProjectionLoc = shader.getUniformLocation("viewProjection");
+		cameraRightLoc = shader.getUniformLocation("cameraRight");
+		sizeLoc = shader.getUniformLocation("size");
+		textureLoc = shader.getUniformLocation("impostorTexture");
+		lightLocs = Lights.locate(shader);
+		materialLocs = Material.locate(shader);
+
+		bake(gl, trees);
+		texture = new Texture(textureID[0], TextureSampler.CLAMP);
+	}
+
+	/**
+	 * Render the tree from the side into the impostor texture, through a
+	 * temporary framebuffer. Can be called again to bake the tree afresh,
+	 * once its textures have loaded, even mid-frame: the drawing
+	 * framebuffer, viewport and clear colour are put back afterwards.
+	 *
+	 * @param gl
+	 * @param trees
+	 */
+	public void bake(GL2 gl, TreeRenderer trees) {
+		if (textureID[0] == 0)
+			gl.glGenTextures(1, textureID, 0);
+		GLState.getInstance().bindTexture(gl, GL.GL_TEXTURE_2D, textureID[0]);
+		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA, TEXTURE_WIDTH,
+				TEXTURE_HEIGHT, 0, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, null);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S,
+				GL.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T,
+				GL.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER,
+				GL.GL_LINEAR);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER,
+				GL.GL_LINEAR_MIPMAP_LINEAR);
+
+		int framebuffer[] = new int[1];
+		int depthbuffer[] = new int[1];
+		gl.glGenFramebuffers(1, framebuffer, 0);
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebuffer[0]);
+		gl.glFramebufferTexture2D(GL.GL_FRAMEBUFFER, GL.GL_COLOR_ATTACHMENT0,
+				GL.GL_TEXTURE_2D, textureID[0], 0);
+		gl.glGenRenderbuffers(1, depthbuffer, 0);
+		gl.glBindRenderbuffer(GL.GL_RENDERBUFFER, depthbuffer[0]);
+		gl.glRenderbufferStorage(GL.GL_RENDERBUFFER, GL.GL_DEPTH_COMPONENT24,
+				TEXTURE_WIDTH, TEXTURE_HEIGHT);
+		gl.glFramebufferRenderbuffer(GL.GL_FRAMEBUFFER,
+				GL.GL_DEPTH_ATTACHMENT, GL.GL_RENDERBUFFER, depthbuffer[0]);
+
+		if (gl.glCheckFramebufferStatus(GL.GL_FRAMEBUFFER) != GL.GL_FRAMEBUFFER_COMPLETE) {
+			System.err.println("Tree impostor framebuffer is incomplete");
+		} else {
+			GLState state = GLState.getInstance();
+			int viewport[] = state.getViewport(gl, new int[4]);
+			float clearColor[] = new float[4];
+			gl.glGetFloatv(GL.GL_COLOR_CLEAR_VALUE, clearColor, 0);
+			state.viewport(gl, 0, 0, TEXTURE_WIDTH, TEXTURE_HEIGHT);
+			gl.glClearColor(0, 0, 0, 0);
+			gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+
+			trees.drawSingle(gl, bakeProjection);
+
+			state.viewport(gl, viewport[0], viewport[1], viewport[2],
+					viewport[3]);
+			gl.glClearColor(clearColor[0], clearColor[1], clearColor[2],
+					clearColor[3]);
+		}
+
+		// the GLJPanel draws into a framebuffer of its own, not 0
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER,
+				gl.getDefaultDrawFramebuffer());
+		gl.glDeleteRenderbuffers(1, depthbuffer, 0);
+		gl.glDeleteFramebuffers(1, framebuffer, 0);
+
+		GLState.getInstance().bindTexture(gl, GL.GL_TEXTURE_2D, textureID[0]);
+		gl.glGenerateMipmap(GL.GL_TEXTURE_2D);
+		GLState.getInstance().bindTexture(gl, GL.GL_TEXTURE_2D, 0);
+	}
+
+	/**
+	 * Queue a billboard at every position in the instance buffer
+	 *
+	 * @param queue
+	 * @param count
+	 *            number of positions
+	 * @param cameraRight
+	 */
+	public void submit(RenderQueue queue, int count, double[] cameraRight) {
+		if (count == 0)
+			return;
+
+		billboardCount = count;
+		myCameraRight = cameraRight;
+		queue.submit(this, texture, RenderQueue.NO_LAYER, MATERIAL,
+				vertexArray[0], 0, billboards);
+	}
+
+	private void drawBillboards(GL2 gl) {
+		shader.setUniform(gl, cameraRightLoc, (float) myCameraRight[0],
+				(float) myCameraRight[1], (float) myCameraRight[2]);
+		gl.glDrawArraysInstanced(GL2.GL_TRIANGLE_FAN, 0, 4, billboardCount);
+	}
+
+	@Override
+	public ShaderProgram getProgram() {
+		return shader;
+	}
+
+	@Override
+	public void use(GL2 gl, float[] viewProjection, Lights lights) {
+		GLState.getInstance().useProgram(gl, shader.getId());
+		shader.setUniformMatrix4(gl, viewProjectionLoc, viewProjection);
+		shader.setUniform(gl, sizeLoc, (float) WIDTH, (float) HEIGHT);
+		shader.setUniform(gl, textureLoc, 0);
+		lights.apply(gl, lightLocs);
+	}
+
+	@Override
+	public void setMaterial(GL2 gl, Material material) {
+		GLState.getInstance().setMaterial(gl, shader, material, materialLocs);
+	}
+
+	@Override
+	public void setLayer(GL2 gl, int layer) {
+		// the impostor is a plain texture
+	}
+
+	/**
+	 * Delete the texture, buffer and vertex array and let go of the shader
+	 *
+	 * @param gl
+	 */
+	public void release(GL2 gl) {
+		if (shader != null) {
+			shader.release(gl);
+			shader = null;
+		}
+		if (texture != null) {
+			// deletes the baked texture
+			texture.release(gl);
+			texture = null;
+			textureID[0] = 0;
+		}
+		if (bufferIds[0] > 0) {
+			GLState.getInstance().deleteBuffers(gl, 1, bufferIds);
+			GLState.getInstance().deleteVertexArrays(gl, 1, vertexArray);
+			bufferIds[0] = 0;
+			vertexArray[0] = 0;
+		}
+	}
+}
@@ -0,0 +1,440 @@
+package World.spec;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * TreeRenderer class, builds one trunk, cap and leaf mesh shared by every
+ * tree and draws the whole forest with instanced draw calls, using a buffer
+ * of tree positions as a per-instance attribute. Trees further from the
+ * camera than the impostor distance are drawn as billboards instead. Both
+ * ways of drawing the mesh keep their attribute layout in a vertex array.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class TreeRenderer {
+
+	public static final double HEIGHT = 2;
+	public static final double TRUNK_RADIUS = .1;
+	public static final double LEAVES_RADIUS = .4;
+	private static final int SLICES = 32;
+	private static final int STACKS = 16;
+
+	// floats per vertex: position (3), normal (3), texture coordinate (2)
+	private static final int VERTEX_SIZE = 8;
+	private static final int STRIDE = VERTEX_SIZE * Float.BYTES;
+	private static final int NORMAL_OFFSET = 3 * Float.BYTES;
+	private static final int TEXCOORD_OFFSET = 6 * Float.BYTES;
+
+	// how far the camera moves before the trees are split again
+	private static final double REPARTITION_DISTANCE = 0.5;
+
+	public static final String LEAVES_TEXTURE = "leaves.jpg";
+	public static final String TRUNK_TEXTURE = "trunk.jpg";
+
+	public static final Material TRUNK_MATERIAL = new Material(new float[] {
+			0.0f, 0.0f, 0.0f, 1.0f }, new float[] { 0.5f, 0.5f, 0.5f, 1.0f },
+			new float[] { 1.0f, 1.0f, 1.0f, 1.0f }, 10f);
+	public static final Material LEAVES_MATERIAL = new Material(new float[] {
+			0.0f, 1.0f, 0.0f, 1.0f }, new float[] { 0.0f, 1.0f, 0.0f, 1.0f },
+			new float[] { 1.0f, 1.0f, 1.0f, 1.0f }, 10f);
+
+	private List<Tree> myTrees;
+	// shared with the terrain, which owns it
+	private TextureArray textures;
+	private int leavesLayer;
+	private int trunkLayer;
+
+	private FloatBuffer vertexData;
+	private ShortBuffer indexData;
+	private boolean meshBuilt = false;
+	private int vertexCount;
+	private int trunkIndexCount;
+	private int leavesIndexCount;
+
+	// vertices, indices, near tree positions, far tree positions
+	private int bufferIds[] = new int[4];
+	// the mesh with near tree positions per instance, the mesh alone
+	private int vertexArrays[] = new int[2];
+	private FloatBuffer nearPositions;
+	private FloatBuffer farPositions;
+	private boolean instancesDirty = true;
+	// camera position the trees were last split at, null to split next frame
+	private double[] partitionEye;
+
+	private TreeImpostor impostor;
+	// whether the impostor was baked with the real textures
+	private boolean impostorTextured = false;
+	private double impostorDistance = 5;
+
+	private WorldShader shader = new WorldShader();
+	private int nearCount;
+	private int farCount;
+	private RenderItem trunks = this::drawTrunks;
+	private RenderItem leaves = this::drawLeaves;
+
+	public TreeRenderer(List<Tree> trees) {
+		myTrees = trees;
+	}
+
+	public double getImpostorDistance() {
+		return impostorDistance;
+	}
+
+	/**
+	 * Set the distance from the camera beyond which trees are drawn as
+	 * billboards
+	 *
+	 * @param distance
+	 */
+	public void setImpostorDistance(double distance) {
+		impostorDistance = distance;
+		partitionEye = null;
+	}
+
+	/**
+	 * Mark the instance buffers as out of date, after trees are added
+	 */
+	public void invalidate() {
+		instancesDirty = true;
+	}
+
+	/**
+	 * Build the shared tree mesh. Does not need a GL context.
+	 */
+	public void build() {
+		if (!meshBuilt) {
+			buildMesh();
+			meshBuilt = true;
+		}
+	}
+
+	/**
+	 * Build and upload the shared mesh and compile the shader
+	 *
+	 * @param gl
+	 * @param textures
+	 *            an array holding the leaves and trunk textures
+	 */
+	public void init(GL2 gl, TextureArray textures) {
+		this.textures = textures;
+		leavesLayer = textures.getLayer(LEAVES_TEXTURE);
+		trunkLayer = textures.getLayer(TRUNK_TEXTURE);
+
+		build();
+
+		gl.glGenBuffers(4, bufferIds, 0);
+		// the element binding belongs to the vertex array, so upload the
+		// indices with none of ours bound
+		GLState.getInstance().bindVertexArray(gl, 0);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, bufferIds[0]);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, vertexData.limit() * Float.BYTES,
+				vertexData, GL.GL_STATIC_DRAW);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER,
+				bufferIds[1]);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, indexData.limit()
+				* Short.BYTES, indexData, GL.GL_STATIC_DRAW);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, 0);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+		vertexData = null;
+		indexData = null;
+
+		gl.glGenVertexArrays(2, vertexArrays, 0);
+		GLState.getInstance().bindVertexArray(gl, vertexArrays[0]);
+		bindMesh(gl);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, bufferIds[2]);
+		gl.glEnableVertexAttribArray(ShaderProgram.INSTANCE_POS);
+		gl.glVertexAttribPointer(ShaderProgram.INSTANCE_POS, 3, GL.GL_FLOAT,
+				false, 0, 0);
+		ShaderProgram.setAttribDivisor(gl, ShaderProgram.INSTANCE_POS, 1);
+		// the single tree reads instancePos from the attribute's current
+		// value instead
+		GLState.getInstance().bindVertexArray(gl, vertexArrays[1]);
+		bindMesh(gl);
+		GLState.getInstance().bindVertexArray(gl, 0);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, 0);
+
+		shader.init(gl, WorldShader.INSTANCED);
+
+		impostor = new TreeImpostor();
+		impostor.init(gl, this, bufferIds[3]);
+	}
+
+	/**
+	 * Point the bound vertex array at the shared mesh
+	 *
+	 * @param gl
+	 */
+	private void bindMesh(GL2 gl) {
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, bufferIds[0]);
+		gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_POS);
+		gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_NORMAL);
+		gl.glEnableVertexAttribArray(ShaderProgram.VERTEX_TEX_COORD);
+		gl.glVertexAttribPointer(ShaderProgram.VERTEX_POS, 3, GL.GL_FLOAT,
+				false, STRIDE, 0);
+		gl.glVertexAttribPointer(ShaderProgram.VERTEX_NORMAL, 3, GL.GL_FLOAT,
+				false, STRIDE, NORMAL_OFFSET);
+		gl.glVertexAttribPointer(ShaderProgram.VERTEX_TEX_COORD, 2,
+				GL.GL_FLOAT, false, STRIDE, TEXCOORD_OFFSET);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER,
+				bufferIds[1]);
+	}
+
+	/**
+	 * Build the trunk cylinder and its caps, followed by the leaf sphere, for
+	 * a tree standing at the origin
+	 */
+	private void buildMesh() {
+		int cylinderVertices = (SLICES + 1) * 2;
+		int capVertices = (SLICES + 2) * 2;
+		int sphereVertices = (SLICES + 1) * (STACKS + 1);
+		vertexData = Buffers.newDirectFloatBuffer((cylinderVertices
+				+ capVertices + sphereVertices)
+				* VERTEX_SIZE);
+		indexData = Buffers.newDirectShortBuffer(SLICES * 6 + SLICES * 3 * 2
+				+ SLICES * STACKS * 6);
+		vertexCount = 0;
+
+		// trunk
+		for (int i = 0; i <= SLICES; i++) {
+			double a = 2 * Math.PI * i / SLICES;
+			double nx = Math.cos(a);
+			double nz = Math.sin(a);
+			putVertex(TRUNK_RADIUS * nx, 0, TRUNK_RADIUS * nz, nx, 0, nz,
+					(double) i / SLICES, 0);
+			putVertex(TRUNK_RADIUS * nx, HEIGHT, TRUNK_RADIUS * nz, nx, 0, nz,
+					(double) i / SLICES, 1);
+		}
+		for (int i = 0; i < SLICES; i++) {
+			int bottom = i * 2;
+			putTriangle(bottom, bottom + 1, bottom + 2);
+			putTriangle(bottom + 2, bottom + 1, bottom + 3);
+		}
+
+		// caps
+		putCap(HEIGHT, 1);
+		putCap(0, -1);
+		trunkIndexCount = indexData.position();
+
+		// leaves
+		int first = vertexCount;
+		for (int stack = 0; stack <= STACKS; stack++) {
+			double polar = Math.PI * stack / STACKS;
+			double y = -Math.cos(polar);
+			double ring = Math.sin(polar);
+			for (int i = 0; i <= SLICES; i++) {
+				double a = 2 * Math.PI * i / SLICES;
+				double nx = ring * Math.sin(a);
+				double nz = ring * Math.cos(a);
+				putVertex(LEAVES_RADIUS * nx, HEIGHT + LEAVES_RADIUS * y,
+						LEAVES_RADIUS * nz, nx, y, nz, (double) i / SLICES,
+						(double) stack / STACKS);
+			}
+		}
+		for (int stack = 0; stack < STACKS; stack++) {
+			for (int i = 0; i < SLICES; i++) {
+				int v = first + stack * (SLICES + 1) + i;
+				putTriangle(v, v + 1, v + SLICES + 1);
+				putTriangle(v + 1, v + SLICES + 2, v + SLICES + 1);
+			}
+		}
+		leavesIndexCount = indexData.position() - trunkIndexCount;
+
+		vertexData.flip();
+		indexData.flip();
+	}
+
+	/**
+	 * Add a triangle fan closing the trunk at the given height
+	 *
+	 * @param y
+	 * @param normalY
+	 */
+	private void putCap(double y, int normalY) {
+		int centre = vertexCount;
+		putVertex(0, y, 0, 0, normalY, 0, 0.5, 0.5);
+		for (int i = 0; i <= SLICES; i++) {
+			double a = 2 * Math.PI * i / SLICES;
+			putVertex(TRUNK_RADIUS * Math.cos(a), y,
+					TRUNK_RADIUS * Math.sin(a), 0, normalY, 0,
+					0.5 + 0.5 * Math.cos(a), 0.5 + 0.5 * Math.sin(a));
+		}
+		for (int i = 0; i < SLICES; i++) {
+			if (normalY > 0)
+				putTriangle(centre, centre + i + 2, centre + i + 1);
+			else
+				putTriangle(centre, centre + i + 1, centre + i + 2);
+		}
+	}
+
+	private void putVertex(double x, double y, double z, double nx,
+			double ny, double nz, double s, double t) {
+		vertexData.put((float) x);
+		vertexData.put((float) y);
+		vertexData.put((float) z);
+		vertexData.put((float) nx);
+		vertexData.put((float) ny);
+		vertexData.put((float) nz);
+		vertexData.put((float) s);
+		vertexData.put((float) t);
+		vertexCount++;
+	}
+
+	private void putTriangle(int a, int b, int c) {
+		indexData.put((short) a);
+		indexData.put((short) b);
+		indexData.put((short) c);
+	}
+
+	/**
+	 * Split the trees into those near enough to draw in full and those to
+	 * draw as billboards, and upload both sets of positions. The split is
+	 * only redone once the camera has moved REPARTITION_DISTANCE or the
+	 * trees have changed, so trees near the impostor distance may switch a
+	 * little late.
+	 *
+	 * @param gl
+	 * @param eye
+	 */
+	private void uploadInstances(GL2 gl, double[] eye) {
+		if (instancesDirty) {
+			int capacity = Math.max(myTrees.size() * 3, 3);
+			nearPositions = Buffers.newDirectFloatBuffer(capacity);
+			farPositions = Buffers.newDirectFloatBuffer(capacity);
+			instancesDirty = false;
+			partitionEye = null;
+		}
+		if (partitionEye != null) {
+			double dx = eye[0] - partitionEye[0];
+			double dz = eye[2] - partitionEye[2];
+			if (dx * dx + dz * dz < REPARTITION_DISTANCE
+					* REPARTITION_DISTANCE)
+				return;
+		}
+		partitionEye = new double[] { eye[0], eye[1], eye[2] };
+
+		nearPositions.clear();
+		farPositions.clear();
+
+		double limit = impostorDistance * impostorDistance;
+		for (Tree tree : myTrees) {
+			double[] p = tree.getPosition();
+			double dx = p[0] - eye[0];
+			double dz = p[2] - eye[2];
+			FloatBuffer positions = dx * dx + dz * dz < limit ? nearPositions
+					: farPositions;
+			positions.put((float) p[0]);
+			positions.put((float) p[1]);
+			positions.put((float) p[2]);
+		}
+		nearPositions.flip();
+		farPositions.flip();
+		nearCount = nearPositions.limit() / 3;
+		farCount = farPositions.limit() / 3;
+
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, bufferIds[2]);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, nearPositions.limit()
+				* Float.BYTES, nearPositions, GL2.GL_DYNAMIC_DRAW);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, bufferIds[3]);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, farPositions.limit()
+				* Float.BYTES, farPositions, GL2.GL_DYNAMIC_DRAW);
+		GLState.getInstance().bindBuffer(gl, GL.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Queues every tree. Near trees take one instanced draw for the trunks
+	 * and one for the leaves, and far trees one draw for their billboards.
+	 *
+	 * @param gl
+	 * @param queue
+	 * @param eye
+	 *            camera position
+	 * @param cameraRight
+	 *            camera right vector
+	 */
+	public void submit(GL2 gl, RenderQueue queue, double[] eye,
+			double[] cameraRight) {
+		if (myTrees.isEmpty())
+			return;
+		uploadInstances(gl, eye);
+
+		if (nearCount > 0) {
+			queue.submit(shader, textures, trunkLayer, TRUNK_MATERIAL,
+					vertexArrays[0], 0, trunks);
+			queue.submit(shader, textures, leavesLayer, LEAVES_MATERIAL,
+					vertexArrays[0], 0, leaves);
+		}
+
+		if (!impostorTextured && textures.isReady()) {
+			impostor.bake(gl, this);
+			impostorTextured = true;
+		}
+		impostor.submit(queue, farCount, cameraRight);
+	}
+
+	private void drawTrunks(GL2 gl) {
+		gl.glDrawElementsInstanced(GL.GL_TRIANGLES, trunkIndexCount,
+				GL.GL_UNSIGNED_SHORT, 0, nearCount);
+	}
+
+	private void drawLeaves(GL2 gl) {
+		gl.glDrawElementsInstanced(GL.GL_TRIANGLES, leavesIndexCount,
+				GL.GL_UNSIGNED_SHORT, (long) trunkIndexCount * Short.BYTES,
+				nearCount);
+	}
+
+	/**
+	 * Draw one unlit tree at the origin, for baking the impostor
+	 *
+	 * @param gl
+	 * @param viewProjection
+	 *            column major
+	 */
+	public void drawSingle(GL2 gl, float[] viewProjection) {
+		shader.use(gl, viewProjection, null);
+		shader.setUnlit(gl, true);
+		gl.glVertexAttrib3f(ShaderProgram.INSTANCE_POS, 0, 0, 0);
+
+		GLState.getInstance().bindVertexArray(gl, vertexArrays[1]);
+		textures.bind(gl);
+
+		shader.setMaterial(gl, TRUNK_MATERIAL);
+		shader.setLayer(gl, trunkLayer);
+		gl.glDrawElements(GL.GL_TRIANGLES, trunkIndexCount,
+				GL.GL_UNSIGNED_SHORT, 0);
+
+		shader.setMaterial(gl, LEAVES_MATERIAL);
+		shader.setLayer(gl, leavesLayer);
+		gl.glDrawElements(GL.GL_TRIANGLES, leavesIndexCount,
+				GL.GL_UNSIGNED_SHORT, (long) trunkIndexCount * Short.BYTES);
+
+		GLState.getInstance().bindVertexArray(gl, 0);
+		GLState.getInstance().useProgram(gl, 0);
+	}
+
+	/**
+	 * Delete the buffers, shader and impostor
+	 *
+	 * @param gl
+	 */
+	public void release(GL2 gl) {
+		if (bufferIds[0] > 0) {
+			GLState.getInstance().deleteBuffers(gl, 4, bufferIds);
+			GLState.getInstance().deleteVertexArrays(gl, 2, vertexArrays);
+			bufferIds[0] = 0;
+			vertexArrays[0] = 0;
+		}
+		shader.release(gl);
+		if (impostor != null) {
+			impostor.release(gl);
+			impostor = null;
+		}
+		textures = null;
+	}
+}
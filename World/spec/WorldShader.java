@@ -0,0 +1,134 @@
+package World.spec;
+
+import javax.media.opengl.GL2;
+
+/**
+ * WorldShader class, the lit and textured program the terrain, roads, trees
+ * and avatar are all drawn with. It takes the camera's matrix, the lights
+ * and a material as uniforms, so nothing it draws depends on the fixed
+ * function matrix, light or material state.
+ *
+ * @author John Gilhuly, Fufu Hu
+ */
+public class WorldShader implements RenderProgram {
+
+	private static final String VERTEX_SHADER = "Shaders/WorldVertex.glsl";
+	private static final String FRAGMENT_SHADER = "Shaders/WorldFragment.glsl";
+
+	// per instance positions in the instancePos attribute
+	public static final String INSTANCED = "INSTANCED";
+	// lit colour only, for meshes without texture coordinates
+	public static final String UNTEXTURED = "UNTEXTURED";
+
+	private static final float[] IDENTITY = { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0,
+			1, 0, 0, 0, 0, 1 };
+
+	private ShaderProgram shader;
+	private int viewProjectionLoc;
+	private int modelLoc;
+	private int unlitLoc;
+	private int textureLoc;
+	private int layerLoc;
+	private int[] lightLocs;
+	private int[] materialLocs;
+
+	/**
+	 * Load the program
+	 * 
+	 * @param gl
+	 * @param defines
+	 *            INSTANCED and/or UNTEXTURED
+	 */
+	public void init(GL2 gl, String... defines) {
+		try {
+			shader = ShaderRegistry.getInstance().load(gl, VERTEX_SHADER,
+					FRAGMENT_SHADER, defines);
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		viewProjectionLoc = shader.getUniformLocation("viewProjection");
+		modelLoc = shader.getUniformLocation("model");
+		unlitLoc = shader.getUniformLocation("unlit");
+		textureLoc = shader.getUniformLocation("worldTextures");
+		layerLoc = shader.getUniformLocation("layer");
+		lightLocs = Lights.locate(shader);
+		materialLocs = Material.locate(shader);
+	}
+
+	@Override
+	public ShaderProgram getProgram() {
+		return shader;
+	}
+
+	/**
+	 * Start drawing with the program, lit, with no model transform and
+	 * sampling texture unit 0
+	 * 
+	 * @param gl
+	 * @param viewProjection
+	 *            column major
+	 * @param lights
+	 *            may be null when drawing unlit
+	 */
+	@Override
+	public void use(GL2 gl, float[] viewProjection, Lights lights) {
+		GLState.getInstance().useProgram(gl, shader.getId());
+		shader.setUniformMatrix4(gl, viewProjectionLoc, viewProjection);
+		shader.setUniformMatrix4(gl, modelLoc, IDENTITY);
+		shader.setUniform(gl, unlitLoc, 0f);
+		shader.setUniform(gl, textureLoc, 0);
+		if (lights != null)
+			lights.apply(gl, lightLocs);
+	}
+
+	/**
+	 * Place what is drawn next, rotation and translation only
+	 * 
+	 * @param gl
+	 * @param model
+	 *            column major
+	 */
+	public void setModel(GL2 gl, float[] model) {
+		shader.setUniformMatrix4(gl, modelLoc, model);
+	}
+
+	@Override
+	public void setMaterial(GL2 gl, Material material) {
+		GLState.getInstance().setMaterial(gl, shader, material, materialLocs);
+	}
+
+	/**
+	 * Pick the image in the bound texture array to draw with
+	 * 
+	 * @param gl
+	 * @param layer
+	 */
+	@Override
+	public void setLayer(GL2 gl, int layer) {
+		shader.setUniform(gl, layerLoc, (float) layer);
+	}
+
+	/**
+	 * Draw in plain texture colour, ignoring the lights and material
+	 * 
+	 * @param gl
+	 * @param unlit
+	 */
+	public void setUnlit(GL2 gl, boolean unlit) {
+		shader.setUniform(gl, unlitLoc, unlit ? 1f : 0f);
+	}
+
+	/**
+	 * Let go of the program
+	 * 
+	 * @param gl
+	 */
+	public void release(GL2 gl) {
+		if (shader != null) {
+			shader.release(gl);
+			shader = null;
+		}
+	}
+}